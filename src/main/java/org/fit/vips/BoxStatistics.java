@@ -0,0 +1,183 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - BoxStatistics.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.layout.ElementBox;
+import org.fit.cssbox.layout.TextBox;
+
+/**
+ * Aggregated properties of box and all its descendants.
+ * <p>
+ * Statistics depend only on page's layout, so they are computed once
+ * and reused in all iterations of segmentation.
+ * @author Tomas Popela
+ *
+ */
+public class BoxStatistics {
+
+	/** Box or some of its descendants is &lt;hr&gt; */
+	public static final int HR = 1;
+	/** Box or some of its descendants is visible &lt;img&gt; */
+	public static final int VISIBLE_IMG = 2;
+	/** Box or some of its descendants is visible &lt;input&gt; */
+	public static final int VISIBLE_INPUT = 4;
+
+	//length of text in text nodes, that are not blank
+	private int _textLength = 0;
+	//number of text nodes
+	private int _textNodes = 0;
+	//number of boxes (including box itself)
+	private int _boxes = 0;
+	//number of boxes with non zero size (including box itself)
+	private int _sizedBoxes = 0;
+	//tags of box and its descendants
+	private int _tags = 0;
+
+	/**
+	 * Computes statistics of given box and all its descendants
+	 * @param box Box
+	 * @param result Map, where statistics of all boxes will be saved
+	 * @return Statistics of given box
+	 */
+	public static BoxStatistics compute(Box box, Map<Box, BoxStatistics> result)
+	{
+		List<Box> boxes = new ArrayList<Box>();
+		Deque<Box> stack = new ArrayDeque<Box>();
+		stack.push(box);
+
+		while (!stack.isEmpty())
+		{
+			Box actualBox = stack.pop();
+			boxes.add(actualBox);
+
+			if (actualBox instanceof ElementBox)
+			{
+				for (Box child : ((ElementBox) actualBox).getSubBoxList())
+					stack.push(child);
+			}
+		}
+
+		// descendants are before their ancestors in reversed pre-order
+		for (int i = boxes.size() - 1; i >= 0; i--)
+			result.put(boxes.get(i), computeOwn(boxes.get(i), result));
+
+		return result.get(box);
+	}
+
+	/**
+	 * Computes statistics of box from already computed statistics of its
+	 * children
+	 * @param box Box
+	 * @param result Statistics of already processed boxes
+	 * @return Statistics of given box
+	 */
+	private static BoxStatistics computeOwn(Box box, Map<Box, BoxStatistics> result)
+	{
+		BoxStatistics statistics = new BoxStatistics();
+
+		statistics._boxes = 1;
+
+		if (box.getWidth() != 0 && box.getHeight() != 0)
+			statistics._sizedBoxes = 1;
+
+		switch (VipsTag.of(box))
+		{
+			case HR:
+				statistics._tags |= HR;
+				break;
+			case IMG:
+				if (box.isVisible())
+					statistics._tags |= VISIBLE_IMG;
+				break;
+			case INPUT:
+				if (box.isVisible())
+					statistics._tags |= VISIBLE_INPUT;
+				break;
+			default:
+				break;
+		}
+
+		if (box instanceof TextBox)
+		{
+			String text = box.getText();
+
+			if (!text.equals("") && !text.equals(" ") && !text.equals("\n"))
+				statistics._textLength = text.length();
+
+			statistics._textNodes = 1;
+		}
+		else
+		{
+			for (Box child : ((ElementBox) box).getSubBoxList())
+			{
+				BoxStatistics childStatistics = result.get(child);
+
+				statistics._textLength += childStatistics._textLength;
+				statistics._textNodes += childStatistics._textNodes;
+				statistics._boxes += childStatistics._boxes;
+				statistics._sizedBoxes += childStatistics._sizedBoxes;
+				statistics._tags |= childStatistics._tags;
+			}
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Gets length of text in all not blank text nodes
+	 * @return Length of text
+	 */
+	public int getTextLength()
+	{
+		return _textLength;
+	}
+
+	/**
+	 * Gets number of text nodes
+	 * @return Number of text nodes
+	 */
+	public int getTextNodesCount()
+	{
+		return _textNodes;
+	}
+
+	/**
+	 * Gets number of boxes (including box itself)
+	 * @return Number of boxes
+	 */
+	public int getBoxesCount()
+	{
+		return _boxes;
+	}
+
+	/**
+	 * Gets number of boxes with non zero width and height (including box
+	 * itself)
+	 * @return Number of boxes with non zero size
+	 */
+	public int getSizedBoxesCount()
+	{
+		return _sizedBoxes;
+	}
+
+	/**
+	 * Checks if box or some of its descendants has one of given tags
+	 * @param tags Tags (HR, VISIBLE_IMG, VISIBLE_INPUT)
+	 * @return True if one of tags was found, otherwise false
+	 */
+	public boolean containsTag(int tags)
+	{
+		return (_tags & tags) != 0;
+	}
+}
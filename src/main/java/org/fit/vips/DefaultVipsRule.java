@@ -0,0 +1,107 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - DefaultVipsRule.java
+ */
+
+package org.fit.vips;
+
+import org.fit.cssbox.layout.ElementBox;
+
+/**
+ * Twelve rules of VIPS algorithm implemented in VipsParser.
+ * @author Tomas Popela
+ *
+ */
+public enum DefaultVipsRule implements VipsRule {
+	ONE {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleOne(node);
+		}
+	},
+	TWO {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleTwo(node);
+		}
+	},
+	THREE {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleThree(node);
+		}
+	},
+	FOUR {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleFour(node);
+		}
+	},
+	FIVE {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleFive(node);
+		}
+	},
+	SIX {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleSix(node);
+		}
+	},
+	SEVEN {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleSeven(node);
+		}
+	},
+	EIGHT {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleEight(node);
+		}
+	},
+	NINE {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleNine(node);
+		}
+	},
+	TEN {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleTen(node);
+		}
+	},
+	ELEVEN {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleEleven(node);
+		}
+	},
+	TWELVE {
+		@Override
+		public boolean apply(VipsParser parser, ElementBox node)
+		{
+			return parser.ruleTwelve(node);
+		}
+	};
+
+	@Override
+	public String getName()
+	{
+		return "Rule " + name().charAt(0) + name().substring(1).toLowerCase();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - DomSourceIndex.java
+ */
+
+package org.fit.vips;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.w3c.dom.Node;
+
+/**
+ * Source indexes of DOM nodes.
+ * <p>
+ * Source index of node is its position in pre-order traversal of document
+ * (document node has index 0). Table is built once per page.
+ * @author Tomas Popela
+ *
+ */
+public class DomSourceIndex {
+
+	private Node _document = null;
+	private Map<Node, Integer> _indexes = null;
+
+	/**
+	 * Builds source indexes for all nodes in given document
+	 * @param document Document node
+	 */
+	public DomSourceIndex(Node document)
+	{
+		_document = document;
+		_indexes = new IdentityHashMap<Node, Integer>();
+
+		int index = 0;
+		Node node = document;
+
+		while (node != null)
+		{
+			_indexes.put(node, index);
+			index++;
+
+			if (node.getFirstChild() != null)
+			{
+				node = node.getFirstChild();
+				continue;
+			}
+
+			// go up until we find node with next sibling
+			while (node != document && node.getNextSibling() == null)
+				node = node.getParentNode();
+
+			if (node == document)
+				node = null;
+			else
+				node = node.getNextSibling();
+		}
+	}
+
+	/**
+	 * Gets source index of given node
+	 * @param node Node
+	 * @return Source index or -1 if node is not in document
+	 */
+	public int getIndex(Node node)
+	{
+		Integer index = _indexes.get(node);
+
+		if (index == null)
+			return -1;
+
+		return index;
+	}
+
+	/**
+	 * Checks if indexes were built for given document
+	 * @param document Document node
+	 * @return True if indexes belong to document, otherwise false
+	 */
+	public boolean isIndexOf(Node document)
+	{
+		return _document == document;
+	}
+
+	/**
+	 * @return Number of nodes in document
+	 */
+	public int size()
+	{
+		return _indexes.size();
+	}
+}
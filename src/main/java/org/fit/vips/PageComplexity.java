@@ -0,0 +1,168 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - PageComplexity.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.layout.ElementBox;
+import org.fit.cssbox.layout.Viewport;
+
+/**
+ * Complexity of rendered page.
+ * <p>
+ * It's measured right after layout in one walk of box tree and it's used
+ * for choosing processing tier and for estimation of memory needed for
+ * segmentation.
+ * @author Tomas Popela
+ *
+ */
+public class PageComplexity {
+
+	// pages bigger than these limits are processed with reduced tier
+	private static final int REDUCED_BOXES = 20000;
+	private static final int REDUCED_DEPTH = 150;
+	private static final int REDUCED_HEIGHT = 30000;
+	// pages bigger than these limits are processed with coarse tier
+	private static final int COARSE_BOXES = 80000;
+	private static final int COARSE_DEPTH = 400;
+	private static final int COARSE_HEIGHT = 100000;
+
+	// rough memory used by one box (VIPS block, statistics, style) and by
+	// visual structures and separators of one box in every tier
+	private static final long BLOCK_BYTES_PER_BOX = 600;
+	private static final long FULL_BYTES_PER_BOX = 1200;
+	private static final long REDUCED_BYTES_PER_BOX = 600;
+	private static final long COARSE_BYTES_PER_BOX = 150;
+
+	private int _boxes = 0;
+	private int _depth = 0;
+	private int _width = 0;
+	private int _height = 0;
+
+	private PageComplexity()
+	{
+	}
+
+	/**
+	 * Measures complexity of page
+	 * @param viewport Page's viewport
+	 * @return Page complexity
+	 */
+	public static PageComplexity measure(Viewport viewport)
+	{
+		PageComplexity complexity = new PageComplexity();
+		Deque<Box> boxes = new ArrayDeque<Box>();
+		Deque<Integer> depths = new ArrayDeque<Integer>();
+
+		complexity._width = viewport.getWidth();
+		complexity._height = viewport.getHeight();
+
+		boxes.push(viewport);
+		depths.push(1);
+
+		while (!boxes.isEmpty())
+		{
+			Box box = boxes.pop();
+			int depth = depths.pop();
+
+			complexity._boxes++;
+
+			if (depth > complexity._depth)
+				complexity._depth = depth;
+
+			if (box instanceof ElementBox)
+			{
+				for (Box child : ((ElementBox) box).getSubBoxList())
+				{
+					boxes.push(child);
+					depths.push(depth + 1);
+				}
+			}
+		}
+
+		return complexity;
+	}
+
+	/**
+	 * Chooses processing tier for page
+	 * @return Processing tier
+	 */
+	public ProcessingTier getProcessingTier()
+	{
+		if (_boxes > COARSE_BOXES || _depth > COARSE_DEPTH || _height > COARSE_HEIGHT)
+			return ProcessingTier.COARSE;
+
+		if (_boxes > REDUCED_BOXES || _depth > REDUCED_DEPTH || _height > REDUCED_HEIGHT)
+			return ProcessingTier.REDUCED;
+
+		return ProcessingTier.FULL;
+	}
+
+	/**
+	 * Estimates memory needed for segmentation of page
+	 * @param tier Processing tier
+	 * @param graphicsOutput True if graphics output is enabled
+	 * @return Estimated memory in bytes
+	 */
+	public long estimateMemory(ProcessingTier tier, boolean graphicsOutput)
+	{
+		long memory = _boxes * BLOCK_BYTES_PER_BOX;
+
+		switch (tier)
+		{
+			case FULL:
+				memory += _boxes * FULL_BYTES_PER_BOX;
+				break;
+			case REDUCED:
+				memory += _boxes * REDUCED_BYTES_PER_BOX;
+				break;
+			default:
+				memory += _boxes * COARSE_BYTES_PER_BOX;
+				break;
+		}
+
+		// images of graphics detectors (pooled one and one for global separators)
+		if (graphicsOutput)
+			memory += 2L * 4 * _width * _height;
+
+		return memory;
+	}
+
+	/**
+	 * @return Number of boxes on page
+	 */
+	public int getBoxesCount()
+	{
+		return _boxes;
+	}
+
+	/**
+	 * @return Depth of box tree
+	 */
+	public int getDepth()
+	{
+		return _depth;
+	}
+
+	/**
+	 * @return Page's width
+	 */
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	/**
+	 * @return Page's height
+	 */
+	public int getHeight()
+	{
+		return _height;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - ProcessingTier.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Level of page processing, that is chosen from page's complexity.
+ * <p>
+ * Tiers differ in number of segmentation iterations. Coarse tier does only
+ * the first iteration, that finds top level blocks of page.
+ * @author Tomas Popela
+ *
+ */
+public enum ProcessingTier {
+	/** All iterations of segmentation */
+	FULL(10),
+	/** Reduced number of iterations */
+	REDUCED(4),
+	/** Top level blocks only */
+	COARSE(1);
+
+	private final int _iterations;
+
+	private ProcessingTier(int iterations)
+	{
+		this._iterations = iterations;
+	}
+
+	/**
+	 * Gets number of segmentation iterations
+	 * @return Number of iterations
+	 */
+	public int getIterations()
+	{
+		return _iterations;
+	}
+
+	/**
+	 * Gets the nearest cheaper tier
+	 * @return Cheaper tier (coarse tier for coarse tier)
+	 */
+	public ProcessingTier degrade()
+	{
+		switch (this)
+		{
+			case FULL:
+				return REDUCED;
+			default:
+				return COARSE;
+		}
+	}
+}
@@ -10,6 +10,11 @@ import java.awt.Point;
 
 /**
  * Class that represents visual separator.
+ * <p>
+ * Detectors compute separators in SeparatorTable, that is used only
+ * inside of detectors. Separators of detector's result are copied out of
+ * table to standalone objects. Corners are kept in public Point fields
+ * for compatibility, getLeftUp() and getRightDown() return these fields.
  * @author Tomas Popela
  *
  */
@@ -36,8 +41,8 @@ public class Separator implements Comparable<Separator> {
 
 	public Separator(int leftUpX, int leftUpY, int rightDownX, int rightDownY)
 	{
-		this.leftUp = new Point(leftUpX, leftUpY);
-		this.rightDown = new Point(rightDownX, rightDownY);
+		setLeftUp(leftUpX, leftUpY);
+		setRightDown(rightDownX, rightDownY);
 		this.startPoint = leftUpX;
 		this.endPoint = rightDownY;
 	}
@@ -52,6 +57,53 @@ public class Separator implements Comparable<Separator> {
 		this.rightDown = new Point(rightDownX, rightDownY);
 	}
 
+	/**
+	 * Checks if separator's rectangle is set
+	 * @return True if rectangle is set, otherwise false
+	 */
+	public boolean hasRectangle()
+	{
+		return leftUp != null;
+	}
+
+	/**
+	 * Returns left upper corner of separator
+	 * @return Left upper corner or null if it's not set
+	 */
+	public Point getLeftUp()
+	{
+		return leftUp;
+	}
+
+	/**
+	 * Returns right bottom corner of separator
+	 * @return Right bottom corner or null if it's not set
+	 */
+	public Point getRightDown()
+	{
+		return rightDown;
+	}
+
+	public int getLeftUpX()
+	{
+		return (leftUp != null) ? leftUp.x : 0;
+	}
+
+	public int getLeftUpY()
+	{
+		return (leftUp != null) ? leftUp.y : 0;
+	}
+
+	public int getRightDownX()
+	{
+		return (rightDown != null) ? rightDown.x : 0;
+	}
+
+	public int getRightDownY()
+	{
+		return (rightDown != null) ? rightDown.y : 0;
+	}
+
 	@Override
 	public int compareTo(Separator otherSeparator)
 	{
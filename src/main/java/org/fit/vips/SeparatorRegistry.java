@@ -0,0 +1,175 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - SeparatorRegistry.java
+ */
+
+package org.fit.vips;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Page level registry of separators.
+ * <p>
+ * Every distinct separator (by its geometry and weight) is stored only once,
+ * visual structures reference the registered instance. Separators are
+ * registered under copy of their geometry and weight taken at registration,
+ * so registered separator must not be changed afterwards.
+ * @author Tomas Popela
+ *
+ */
+public class SeparatorRegistry {
+
+	private Map<Key, Separator> _separators = null;
+
+	/**
+	 * Immutable copy of separator's geometry and weight
+	 */
+	private static final class Key
+	{
+		private final int startPoint;
+		private final int endPoint;
+		private final int weight;
+		private final boolean hasRectangle;
+		private final int leftUpX;
+		private final int leftUpY;
+		private final int rightDownX;
+		private final int rightDownY;
+
+		private Key(Separator separator)
+		{
+			this.startPoint = separator.startPoint;
+			this.endPoint = separator.endPoint;
+			this.weight = separator.weight;
+			this.hasRectangle = separator.hasRectangle();
+			this.leftUpX = separator.getLeftUpX();
+			this.leftUpY = separator.getLeftUpY();
+			this.rightDownX = separator.getRightDownX();
+			this.rightDownY = separator.getRightDownY();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+
+			return startPoint == other.startPoint &&
+					endPoint == other.endPoint &&
+					weight == other.weight &&
+					hasRectangle == other.hasRectangle &&
+					leftUpX == other.leftUpX &&
+					leftUpY == other.leftUpY &&
+					rightDownX == other.rightDownX &&
+					rightDownY == other.rightDownY;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = startPoint;
+			hash = 31 * hash + endPoint;
+			hash = 31 * hash + weight;
+			hash = 31 * hash + leftUpX;
+			hash = 31 * hash + leftUpY;
+			hash = 31 * hash + rightDownX;
+			hash = 31 * hash + rightDownY;
+
+			return hash;
+		}
+	}
+
+	public SeparatorRegistry()
+	{
+		_separators = new LinkedHashMap<Key, Separator>();
+	}
+
+	/**
+	 * Returns registered separator with the same geometry and weight as
+	 * given one. If there is no such separator, given one is registered.
+	 * @param separator Separator
+	 * @return Registered separator
+	 */
+	public Separator intern(Separator separator)
+	{
+		Key key = new Key(separator);
+		Separator registered = _separators.get(key);
+
+		if (registered != null)
+			return registered;
+
+		_separators.put(key, separator);
+
+		return separator;
+	}
+
+	/**
+	 * Replaces all separators in given list with registered ones
+	 * @param separators Separators
+	 */
+	public void internAll(List<Separator> separators)
+	{
+		ListIterator<Separator> iterator = separators.listIterator();
+
+		while (iterator.hasNext())
+		{
+			Separator separator = iterator.next();
+			Separator registered = intern(separator);
+
+			if (registered != separator)
+				iterator.set(registered);
+		}
+	}
+
+	/**
+	 * Keeps only given separators in registry
+	 * @param liveSeparators Separators that are still used
+	 */
+	public void retainAll(Collection<Separator> liveSeparators)
+	{
+		Set<Separator> live = new HashSet<Separator>(liveSeparators);
+		Iterator<Separator> iterator = _separators.values().iterator();
+
+		while (iterator.hasNext())
+		{
+			if (!live.contains(iterator.next()))
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * @return All registered separators
+	 */
+	public Collection<Separator> getSeparators()
+	{
+		return _separators.values();
+	}
+
+	/**
+	 * @return Number of registered separators
+	 */
+	public int size()
+	{
+		return _separators.size();
+	}
+
+	/**
+	 * Removes all separators from registry
+	 */
+	public void clear()
+	{
+		_separators.clear();
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - SeparatorTable.java
+ */
+
+package org.fit.vips;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table of separators stored in parallel primitive columns.
+ * <p>
+ * Separators are addressed by their index in table. Detectors work with
+ * table and create Separator objects only for the final result, every
+ * row of result is copied to new Separator (with its own corner points).
+ * @author Tomas Popela
+ *
+ */
+public class SeparatorTable {
+
+	private static final int DEFAULT_WEIGHT = 3;
+
+	private int[] _start = null;
+	private int[] _end = null;
+	private int[] _weight = null;
+	private int[] _normalizedWeight = null;
+	// separator's rectangle
+	private boolean[] _hasRectangle = null;
+	private int[] _leftUpX = null;
+	private int[] _leftUpY = null;
+	private int[] _rightDownX = null;
+	private int[] _rightDownY = null;
+
+	private int _size = 0;
+
+	// buffers for sorting
+	private int[] _order = null;
+	private int[] _orderBuffer = null;
+	private int[] _columnBuffer = null;
+	private boolean[] _flagBuffer = null;
+
+	public SeparatorTable()
+	{
+		this(16);
+	}
+
+	public SeparatorTable(int capacity)
+	{
+		if (capacity < 1)
+			capacity = 1;
+
+		_start = new int[capacity];
+		_end = new int[capacity];
+		_weight = new int[capacity];
+		_normalizedWeight = new int[capacity];
+		_hasRectangle = new boolean[capacity];
+		_leftUpX = new int[capacity];
+		_leftUpY = new int[capacity];
+		_rightDownX = new int[capacity];
+		_rightDownY = new int[capacity];
+	}
+
+	/**
+	 * Ensures that table can hold given number of separators
+	 * @param capacity Capacity
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= _start.length)
+			return;
+
+		int newCapacity = Math.max(capacity, _start.length * 2);
+
+		_start = Arrays.copyOf(_start, newCapacity);
+		_end = Arrays.copyOf(_end, newCapacity);
+		_weight = Arrays.copyOf(_weight, newCapacity);
+		_normalizedWeight = Arrays.copyOf(_normalizedWeight, newCapacity);
+		_hasRectangle = Arrays.copyOf(_hasRectangle, newCapacity);
+		_leftUpX = Arrays.copyOf(_leftUpX, newCapacity);
+		_leftUpY = Arrays.copyOf(_leftUpY, newCapacity);
+		_rightDownX = Arrays.copyOf(_rightDownX, newCapacity);
+		_rightDownY = Arrays.copyOf(_rightDownY, newCapacity);
+	}
+
+	/**
+	 * Returns number of separators in table
+	 * @return Number of separators
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Removes all separators from table
+	 */
+	public void clear()
+	{
+		_size = 0;
+	}
+
+	/**
+	 * Adds new separator to the end of table
+	 * @param start Start point
+	 * @param end End point
+	 * @return Index of new separator
+	 */
+	public int add(int start, int end)
+	{
+		return insert(_size, start, end);
+	}
+
+	/**
+	 * Inserts new separator at given index
+	 * @param index Index
+	 * @param start Start point
+	 * @param end End point
+	 * @return Index of new separator
+	 */
+	public int insert(int index, int start, int end)
+	{
+		ensureCapacity(_size + 1);
+
+		int moved = _size - index;
+
+		if (moved > 0)
+		{
+			System.arraycopy(_start, index, _start, index + 1, moved);
+			System.arraycopy(_end, index, _end, index + 1, moved);
+			System.arraycopy(_weight, index, _weight, index + 1, moved);
+			System.arraycopy(_normalizedWeight, index, _normalizedWeight, index + 1, moved);
+			System.arraycopy(_hasRectangle, index, _hasRectangle, index + 1, moved);
+			System.arraycopy(_leftUpX, index, _leftUpX, index + 1, moved);
+			System.arraycopy(_leftUpY, index, _leftUpY, index + 1, moved);
+			System.arraycopy(_rightDownX, index, _rightDownX, index + 1, moved);
+			System.arraycopy(_rightDownY, index, _rightDownY, index + 1, moved);
+		}
+
+		_start[index] = start;
+		_end[index] = end;
+		_weight[index] = DEFAULT_WEIGHT;
+		_normalizedWeight[index] = 0;
+		_hasRectangle[index] = false;
+		_leftUpX[index] = 0;
+		_leftUpY[index] = 0;
+		_rightDownX[index] = 0;
+		_rightDownY[index] = 0;
+
+		_size++;
+
+		return index;
+	}
+
+	/**
+	 * Removes separator at given index
+	 * @param index Index
+	 */
+	public void remove(int index)
+	{
+		int moved = _size - index - 1;
+
+		if (moved > 0)
+		{
+			System.arraycopy(_start, index + 1, _start, index, moved);
+			System.arraycopy(_end, index + 1, _end, index, moved);
+			System.arraycopy(_weight, index + 1, _weight, index, moved);
+			System.arraycopy(_normalizedWeight, index + 1, _normalizedWeight, index, moved);
+			System.arraycopy(_hasRectangle, index + 1, _hasRectangle, index, moved);
+			System.arraycopy(_leftUpX, index + 1, _leftUpX, index, moved);
+			System.arraycopy(_leftUpY, index + 1, _leftUpY, index, moved);
+			System.arraycopy(_rightDownX, index + 1, _rightDownX, index, moved);
+			System.arraycopy(_rightDownY, index + 1, _rightDownY, index, moved);
+		}
+
+		_size--;
+	}
+
+	public int getStart(int index)
+	{
+		return _start[index];
+	}
+
+	public void setStart(int index, int start)
+	{
+		_start[index] = start;
+	}
+
+	public int getEnd(int index)
+	{
+		return _end[index];
+	}
+
+	public void setEnd(int index, int end)
+	{
+		_end[index] = end;
+	}
+
+	/**
+	 * Returns width of separator (distance between start and end point)
+	 * @param index Index
+	 * @return Separator's width
+	 */
+	public int getWidth(int index)
+	{
+		return _end[index] - _start[index] + 1;
+	}
+
+	public int getWeight(int index)
+	{
+		return _weight[index];
+	}
+
+	public void setWeight(int index, int weight)
+	{
+		_weight[index] = weight;
+	}
+
+	/**
+	 * Increases (or decreases) separator's weight
+	 * @param index Index
+	 * @param value Value that will be added to weight
+	 */
+	public void addWeight(int index, int value)
+	{
+		_weight[index] += value;
+	}
+
+	public int getNormalizedWeight(int index)
+	{
+		return _normalizedWeight[index];
+	}
+
+	public void setNormalizedWeight(int index, int normalizedWeight)
+	{
+		_normalizedWeight[index] = normalizedWeight;
+	}
+
+	/**
+	 * Checks if separator has rectangle set
+	 * @param index Index
+	 * @return True if rectangle is set, otherwise false
+	 */
+	public boolean hasRectangle(int index)
+	{
+		return _hasRectangle[index];
+	}
+
+	/**
+	 * Sets separator's rectangle
+	 * @param index Index
+	 * @param leftUpX X coordinate of left upper corner
+	 * @param leftUpY Y coordinate of left upper corner
+	 * @param rightDownX X coordinate of right bottom corner
+	 * @param rightDownY Y coordinate of right bottom corner
+	 */
+	public void setRectangle(int index, int leftUpX, int leftUpY, int rightDownX, int rightDownY)
+	{
+		_hasRectangle[index] = true;
+		_leftUpX[index] = leftUpX;
+		_leftUpY[index] = leftUpY;
+		_rightDownX[index] = rightDownX;
+		_rightDownY[index] = rightDownY;
+	}
+
+	public int getLeftUpX(int index)
+	{
+		return _leftUpX[index];
+	}
+
+	public int getLeftUpY(int index)
+	{
+		return _leftUpY[index];
+	}
+
+	public int getRightDownX(int index)
+	{
+		return _rightDownX[index];
+	}
+
+	public int getRightDownY(int index)
+	{
+		return _rightDownY[index];
+	}
+
+	/**
+	 * Sorts separators by their weight (ascending).
+	 * <p>
+	 * Sorting is stable, separators with same weight keep their order.
+	 */
+	public void sortByWeight()
+	{
+		if (_size < 2)
+			return;
+
+		if (_order == null || _order.length < _size)
+		{
+			_order = new int[_start.length];
+			_orderBuffer = new int[_start.length];
+			_columnBuffer = new int[_start.length];
+			_flagBuffer = new boolean[_start.length];
+		}
+
+		for (int i = 0; i < _size; i++)
+			_order[i] = i;
+
+		// bottom-up merge sort of indexes
+		int[] source = _order;
+		int[] target = _orderBuffer;
+
+		for (int width = 1; width < _size; width *= 2)
+		{
+			for (int left = 0; left < _size; left += 2 * width)
+			{
+				int middle = Math.min(left + width, _size);
+				int right = Math.min(left + 2 * width, _size);
+				int i = left;
+				int j = middle;
+
+				for (int k = left; k < right; k++)
+				{
+					if (i < middle && (j >= right || _weight[source[i]] <= _weight[source[j]]))
+						target[k] = source[i++];
+					else
+						target[k] = source[j++];
+				}
+			}
+
+			int[] tmp = source;
+			source = target;
+			target = tmp;
+		}
+
+		permute(_start, source);
+		permute(_end, source);
+		permute(_weight, source);
+		permute(_normalizedWeight, source);
+		permute(_leftUpX, source);
+		permute(_leftUpY, source);
+		permute(_rightDownX, source);
+		permute(_rightDownY, source);
+
+		for (int i = 0; i < _size; i++)
+			_flagBuffer[i] = _hasRectangle[source[i]];
+		System.arraycopy(_flagBuffer, 0, _hasRectangle, 0, _size);
+	}
+
+	/**
+	 * Reorders column by given order of indexes
+	 * @param column Column
+	 * @param order New order
+	 */
+	private void permute(int[] column, int[] order)
+	{
+		for (int i = 0; i < _size; i++)
+			_columnBuffer[i] = column[order[i]];
+
+		System.arraycopy(_columnBuffer, 0, column, 0, _size);
+	}
+
+	/**
+	 * Creates separator from given row of table
+	 * @param index Index
+	 * @return Separator
+	 */
+	public Separator getSeparator(int index)
+	{
+		Separator separator = new Separator(_start[index], _end[index], _weight[index]);
+		separator.normalizedWeight = _normalizedWeight[index];
+
+		if (_hasRectangle[index])
+		{
+			separator.setLeftUp(_leftUpX[index], _leftUpY[index]);
+			separator.setRightDown(_rightDownX[index], _rightDownY[index]);
+		}
+
+		return separator;
+	}
+
+	/**
+	 * Creates separators from all rows of table
+	 * @param result List that will be filled with separators
+	 */
+	public void getSeparators(List<Separator> result)
+	{
+		result.clear();
+
+		for (int i = 0; i < _size; i++)
+			result.add(getSeparator(i));
+	}
+
+	/**
+	 * Fills table with given separators
+	 * @param separators Separators
+	 */
+	public void setSeparators(List<Separator> separators)
+	{
+		clear();
+		ensureCapacity(separators.size());
+
+		for (Separator separator : separators)
+		{
+			int index = add(separator.startPoint, separator.endPoint);
+			_weight[index] = separator.weight;
+			_normalizedWeight[index] = separator.normalizedWeight;
+
+			if (separator.hasRectangle())
+			{
+				setRectangle(index, separator.getLeftUpX(), separator.getLeftUpY(),
+						separator.getRightDownX(), separator.getRightDownY());
+			}
+		}
+	}
+}
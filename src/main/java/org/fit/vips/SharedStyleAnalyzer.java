@@ -0,0 +1,150 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - SharedStyleAnalyzer.java
+ */
+
+package org.fit.vips;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import cz.vutbr.web.css.NodeData;
+import cz.vutbr.web.css.Selector.PseudoDeclaration;
+import cz.vutbr.web.domassign.StyleMap;
+
+/**
+ * DOM analyzer of document's copy, that takes styles from analyzer of
+ * original document.
+ * <p>
+ * Layout modifies document (it creates anonymous and generated elements) and
+ * its analyzer, so every layout, whose boxes are used at the same time, needs
+ * its own copy. Styles are computed only once in original analyzer and copy
+ * looks them up through its elements' originals. Styles of elements created
+ * during layout are kept in copy.
+ * <p>
+ * Returned styles are the original's objects and layout modifies them too
+ * (e.g. table sizes are pushed into them), so layouts of copies must not run
+ * in parallel with each other or with anything that reads original's styles.
+ * @author Tomas Popela
+ *
+ */
+public class SharedStyleAnalyzer extends DOMAnalyzer {
+
+	private final DOMAnalyzer _original;
+	private final Map<Element, Element> _originalElements;
+	private final StyleMap _localStyles = new StyleMap(16);
+
+	private SharedStyleAnalyzer(Document copy, URL baseUrl, DOMAnalyzer original, Map<Element, Element> originalElements)
+	{
+		super(copy, baseUrl);
+		this._original = original;
+		this._originalElements = originalElements;
+	}
+
+	/**
+	 * Creates analyzer of original document's copy. Styles of original
+	 * document are computed, if they weren't computed yet. It has to be
+	 * called from one thread at the time.
+	 * @param original Analyzer of original document
+	 * @param baseUrl Document's base URL
+	 * @return Analyzer of document's copy
+	 */
+	public static SharedStyleAnalyzer copyOf(DOMAnalyzer original, URL baseUrl)
+	{
+		Element root = original.getRoot();
+
+		// computes styles of whole original document
+		original.getElementStyleInherited(root);
+
+		Document copy = (Document) root.getOwnerDocument().cloneNode(true);
+		Map<Element, Element> originalElements = new IdentityHashMap<Element, Element>();
+		Deque<Node> originals = new ArrayDeque<Node>();
+		Deque<Node> copies = new ArrayDeque<Node>();
+
+		originals.push(root.getOwnerDocument());
+		copies.push(copy);
+
+		// copy has the same structure as original document
+		while (!originals.isEmpty())
+		{
+			Node originalNode = originals.pop();
+			Node copyNode = copies.pop();
+
+			if (originalNode instanceof Element)
+				originalElements.put((Element) copyNode, (Element) originalNode);
+
+			Node originalChild = originalNode.getFirstChild();
+			Node copyChild = copyNode.getFirstChild();
+
+			while (originalChild != null && copyChild != null)
+			{
+				originals.push(originalChild);
+				copies.push(copyChild);
+				originalChild = originalChild.getNextSibling();
+				copyChild = copyChild.getNextSibling();
+			}
+		}
+
+		return new SharedStyleAnalyzer(copy, baseUrl, original, originalElements);
+	}
+
+	@Override
+	public NodeData getElementStyle(Element el)
+	{
+		Element original = _originalElements.get(el);
+
+		return (original != null) ? _original.getElementStyle(original) : null;
+	}
+
+	@Override
+	public NodeData getElementStyleInherited(Element el)
+	{
+		NodeData style = _localStyles.get(el);
+
+		if (style != null)
+			return style;
+
+		Element original = _originalElements.get(el);
+
+		return (original != null) ? _original.getElementStyleInherited(original) : null;
+	}
+
+	@Override
+	public NodeData getElementStyleInherited(Element el, PseudoDeclaration pseudo)
+	{
+		NodeData style = _localStyles.get(el, pseudo);
+
+		if (style != null)
+			return style;
+
+		Element original = _originalElements.get(el);
+
+		return (original != null) ? _original.getElementStyleInherited(original, pseudo) : null;
+	}
+
+	@Override
+	public boolean hasPseudoDef(Element e, PseudoDeclaration pseudo)
+	{
+		if (_localStyles.hasPseudo(e, pseudo))
+			return true;
+
+		Element original = _originalElements.get(e);
+
+		return (original != null) && _original.hasPseudoDef(original, pseudo);
+	}
+
+	@Override
+	public void useStyle(Element el, PseudoDeclaration pseudo, NodeData data)
+	{
+		_localStyles.put(el, pseudo, data);
+	}
+}
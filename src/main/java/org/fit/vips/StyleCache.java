@@ -0,0 +1,158 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - StyleCache.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.layout.ElementBox;
+import org.fit.cssbox.layout.TextBox;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Page level cache of style properties used by VIPS (background color, font
+ * size and font weight).
+ * <p>
+ * Style of every box is resolved only once. Inherited background color is
+ * shared between element and all its ancestors on the resolved path.
+ * @author Tomas Popela
+ *
+ */
+public class StyleCache {
+
+	private static final String DEFAULT_BG_COLOR = "#ffffff";
+
+	private Map<Box, Style> _styles = null;
+	// background colors inherited from element's ancestors
+	private Map<Node, String> _inheritedBgColors = null;
+
+	/**
+	 * Resolved style of one box
+	 */
+	private static class Style
+	{
+		private String bgColor = null;
+		private String fontWeight = null;
+		private int fontSize = 0;
+	}
+
+	public StyleCache()
+	{
+		_styles = new IdentityHashMap<Box, Style>();
+		_inheritedBgColors = new IdentityHashMap<Node, String>();
+	}
+
+	private Style getStyle(Box box)
+	{
+		Style style = _styles.get(box);
+
+		if (style != null)
+			return style;
+
+		style = new Style();
+		style.fontSize = box.getVisualContext().getFont().getSize();
+
+		if (box instanceof TextBox)
+		{
+			style.bgColor = DEFAULT_BG_COLOR;
+		}
+		else
+		{
+			ElementBox elementBox = (ElementBox) box;
+
+			style.fontWeight = elementBox.getStylePropertyValue("font-weight");
+			style.bgColor = elementBox.getStylePropertyValue("background-color");
+
+			if (style.bgColor.isEmpty())
+				style.bgColor = getInheritedBgColor(elementBox.getElement());
+		}
+
+		_styles.put(box, style);
+
+		return style;
+	}
+
+	/**
+	 * Finds background color of element or its nearest ancestor. All elements
+	 * on path to found color are cached.
+	 * @param element Element
+	 * @return Background color
+	 */
+	private String getInheritedBgColor(Element element)
+	{
+		List<Node> path = new ArrayList<Node>();
+		String bgColor = null;
+
+		while (bgColor == null)
+		{
+			bgColor = _inheritedBgColors.get(element);
+
+			if (bgColor != null)
+				break;
+
+			path.add(element);
+
+			String backgroundColor = element.getAttribute("background-color");
+
+			if (!backgroundColor.isEmpty())
+				bgColor = backgroundColor;
+			else if (element.getParentNode() instanceof Element)
+				element = (Element) element.getParentNode();
+			else
+				bgColor = DEFAULT_BG_COLOR;
+		}
+
+		for (Node node : path)
+			_inheritedBgColors.put(node, bgColor);
+
+		return bgColor;
+	}
+
+	/**
+	 * Gets background color of box. If box doesn't have its own background
+	 * color, color of nearest ancestor is used.
+	 * @param box Box
+	 * @return Background color
+	 */
+	public String getBgColor(Box box)
+	{
+		return getStyle(box).bgColor;
+	}
+
+	/**
+	 * Gets computed font weight of box
+	 * @param box Box
+	 * @return Font weight or null if it's not defined (or box is text box)
+	 */
+	public String getFontWeight(Box box)
+	{
+		return getStyle(box).fontWeight;
+	}
+
+	/**
+	 * Gets font size of box
+	 * @param box Box
+	 * @return Font size
+	 */
+	public int getFontSize(Box box)
+	{
+		return getStyle(box).fontSize;
+	}
+
+	/**
+	 * Removes all cached styles
+	 */
+	public void clear()
+	{
+		_styles.clear();
+		_inheritedBgColors.clear();
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VerticalBlockIndex.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Blocks sorted by their top and bottom edges.
+ * <p>
+ * Index answers queries for blocks above, below and inside of horizontal
+ * separator without scanning all blocks. Results are the same (including
+ * order) as results of linear scans of blocks in original order.
+ * @author Tomas Popela
+ *
+ */
+public class VerticalBlockIndex {
+
+	private List<VipsBlock> _blocks = null;
+	private int[] _tops = null;
+	private int[] _bottoms = null;
+	// indexes of blocks sorted by top (and by original order for equal tops)
+	private int[] _byTop = null;
+	// indexes of blocks sorted by bottom (and by reversed original order)
+	private int[] _byBottom = null;
+	// minimal original index of blocks from given position in _byTop to end
+	private int[] _minIndexFrom = null;
+
+	/**
+	 * Builds index of given blocks
+	 * @param blocks Blocks
+	 */
+	public VerticalBlockIndex(List<VipsBlock> blocks)
+	{
+		int size = blocks.size();
+
+		_blocks = blocks;
+		_tops = new int[size];
+		_bottoms = new int[size];
+
+		long[] topKeys = new long[size];
+		long[] bottomKeys = new long[size];
+
+		for (int i = 0; i < size; i++)
+		{
+			VipsBlock block = blocks.get(i);
+
+			_tops[i] = block.getBox().getAbsoluteContentY();
+			_bottoms[i] = _tops[i] + block.getBox().getContentHeight();
+			topKeys[i] = ((long) _tops[i] << 32) + i;
+			bottomKeys[i] = ((long) _bottoms[i] << 32) + (size - 1 - i);
+		}
+
+		Arrays.sort(topKeys);
+		Arrays.sort(bottomKeys);
+
+		_byTop = new int[size];
+		_byBottom = new int[size];
+		_minIndexFrom = new int[size + 1];
+		_minIndexFrom[size] = Integer.MAX_VALUE;
+
+		for (int i = 0; i < size; i++)
+		{
+			_byTop[i] = (int) (topKeys[i] & 0xffffffffL);
+			_byBottom[i] = size - 1 - (int) (bottomKeys[i] & 0xffffffffL);
+		}
+
+		for (int i = size - 1; i >= 0; i--)
+			_minIndexFrom[i] = Math.min(_byTop[i], _minIndexFrom[i + 1]);
+	}
+
+	/**
+	 * Gets top edge of block
+	 * @param index Original index of block
+	 * @return Top edge
+	 */
+	public int getTop(int index)
+	{
+		return _tops[index];
+	}
+
+	/**
+	 * Gets bottom edge of block
+	 * @param index Original index of block
+	 * @return Bottom edge
+	 */
+	public int getBottom(int index)
+	{
+		return _bottoms[index];
+	}
+
+	/**
+	 * Finds block with the lowest bottom edge, that is above given position
+	 * (bottom edge must be greater than zero). When more blocks have the
+	 * same bottom edge, the first one is returned.
+	 * @param y Position
+	 * @return Original index of block or -1 if there is no such block
+	 */
+	public int findAbove(int y)
+	{
+		// last block with bottom <= y
+		int low = 0;
+		int high = _byBottom.length - 1;
+		int found = -1;
+
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if (_bottoms[_byBottom[middle]] <= y)
+			{
+				found = middle;
+				low = middle + 1;
+			}
+			else
+				high = middle - 1;
+		}
+
+		if (found == -1 || _bottoms[_byBottom[found]] <= 0)
+			return -1;
+
+		return _byBottom[found];
+	}
+
+	/**
+	 * Finds blocks below given position, that would be successively chosen
+	 * as the nearest block in linear scan of blocks in original order.
+	 * The last found block is the nearest block below position.
+	 * @param y Position (top edge of block must be greater or equal)
+	 * @param maxTop Top edge of block must be smaller than this value
+	 * @param result List, where found blocks are added in original order
+	 */
+	public void findBelow(int y, int maxTop, List<VipsBlock> result)
+	{
+		List<VipsBlock> found = new ArrayList<VipsBlock>();
+		int minIndex = Integer.MAX_VALUE;
+
+		for (int i = firstTopFrom(y); i < _byTop.length; i++)
+		{
+			// no block with smaller original index follows
+			if (_minIndexFrom[i] > minIndex)
+				break;
+
+			int index = _byTop[i];
+
+			if (_tops[index] >= maxTop)
+				break;
+
+			if (index < minIndex)
+			{
+				minIndex = index;
+				found.add(_blocks.get(index));
+			}
+		}
+
+		// blocks were found from the nearest one
+		Collections.reverse(found);
+		result.addAll(found);
+	}
+
+	/**
+	 * Finds blocks, that are inside given interval (top and bottom edges
+	 * are strictly between interval's bounds)
+	 * @param start Start of interval
+	 * @param end End of interval
+	 * @param result List, where found blocks are added in original order
+	 */
+	public void findInside(int start, int end, List<VipsBlock> result)
+	{
+		List<Integer> found = new ArrayList<Integer>();
+
+		for (int i = firstTopFrom(start + 1); i < _byTop.length; i++)
+		{
+			int index = _byTop[i];
+
+			if (_tops[index] >= end)
+				break;
+
+			if (_bottoms[index] < end)
+				found.add(index);
+		}
+
+		Collections.sort(found);
+
+		for (Integer index : found)
+			result.add(_blocks.get(index));
+	}
+
+	/**
+	 * Finds first position in _byTop with top edge greater or equal to given value
+	 * @param y Value
+	 * @return Position
+	 */
+	private int firstTopFrom(int y)
+	{
+		int low = 0;
+		int high = _byTop.length;
+
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if (_tops[_byTop[middle]] < y)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+}
@@ -6,6 +6,7 @@
 
 package org.fit.vips;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -16,7 +17,16 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -36,22 +46,55 @@ import org.w3c.dom.Document;
  *
  */
 public class Vips {
+	// page wasn't admitted to memory budget
+	private static final long NOT_ADMITTED = -1;
+
 	private URL _url = null;
 	private DOMAnalyzer _domAnalyzer = null;
-	private BrowserCanvas _browserCanvas = null;
-	private Viewport _viewport = null;
+	private int _viewportWidth = 1000;
+	private int _viewportHeight = 600;
 
 	private boolean _graphicsOutput = false;
 	private boolean _outputToFolder = false;
 	private boolean _outputEscaping = true;
 	private int _pDoC = 11;
 	private String _filename = "";
-	private	int sizeTresholdWidth = 350;
-	private	int sizeTresholdHeight = 400;
+	private VipsRuleTable _ruleTable = null;
+	// time limit of one page in milliseconds (0 for no limit)
+	private long _timeLimit = 0;
+	private boolean _partialResult = false;
+	// memory budget shared by pages of batch (null for no budget)
+	private VipsMemoryBudget _memoryBudget = null;
+	private ProcessingTier _processingTier = ProcessingTier.FULL;
 
 	private PrintStream originalOut = null;
-	long startTime = 0;
-	long endTime = 0;
+
+	/**
+	 * State of segmentation of page in one viewport width
+	 */
+	private static class PageRun
+	{
+		private final DOMAnalyzer analyzer;
+		private final int width;
+		private final String filename;
+		private final boolean exportImages;
+		private final VipsRuleTable ruleTable;
+		private BrowserCanvas browserCanvas = null;
+		private Viewport viewport = null;
+		private ProcessingTier processingTier = ProcessingTier.FULL;
+		private boolean partialResult = false;
+		private long executionTime = 0;
+
+		private PageRun(DOMAnalyzer analyzer, int width, String filename,
+				boolean exportImages, VipsRuleTable ruleTable)
+		{
+			this.analyzer = analyzer;
+			this.width = width;
+			this.filename = filename;
+			this.exportImages = exportImages;
+			this.ruleTable = ruleTable;
+		}
+	}
 
 	/**
 	 * Default constructor
@@ -104,6 +147,80 @@ public class Vips {
 		}
 	}
 
+	/**
+	 * Sets table of VIPS rules, that will be used instead of default one.
+	 * Rules statistics are collected in the table.
+	 * @param ruleTable Rule table
+	 */
+	public void setRuleTable(VipsRuleTable ruleTable)
+	{
+		_ruleTable = ruleTable;
+	}
+
+	/**
+	 * Sets time limit of page segmentation. When time runs out, result of
+	 * the last completed iteration is written and marked as partial. Limit
+	 * starts after page is laid out, so loading, parsing and layout of page
+	 * aren't limited.
+	 * @param milliseconds Time limit in milliseconds (0 for no limit)
+	 */
+	public void setTimeLimit(long milliseconds)
+	{
+		if (milliseconds < 0)
+		{
+			System.err.println("Time limit can't be negative! Not " + milliseconds + "!");
+			return;
+		}
+
+		_timeLimit = milliseconds;
+	}
+
+	/**
+	 * Checks if the last segmentation was interrupted by time limit
+	 * @return True if result is partial, otherwise false
+	 */
+	public boolean isPartialResult()
+	{
+		return _partialResult;
+	}
+
+	/**
+	 * Sets memory budget, that is shared by all pages of batch. Pages,
+	 * that don't fit to budget, are processed with cheaper tier or they wait
+	 * for memory.
+	 * @param memoryBudget Memory budget (null for no budget)
+	 */
+	public void setMemoryBudget(VipsMemoryBudget memoryBudget)
+	{
+		_memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Gets processing tier used for the last page
+	 * @return Processing tier
+	 */
+	public ProcessingTier getProcessingTier()
+	{
+		return _processingTier;
+	}
+
+	/**
+	 * Sets size of viewport, that is used for page layout.
+	 * @param width Viewport's width in pixels
+	 * @param height Viewport's height in pixels
+	 */
+	public void setViewportSize(int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+		{
+			System.err.println("Viewport size must be positive! Not " + width + "x" + height + "!");
+			return;
+		}
+
+		_viewportWidth = width;
+		_viewportHeight = height;
+	}
+
 	/**
 	 * Sets web page's URL
 	 * @param url Url
@@ -147,23 +264,25 @@ public class Vips {
 	}
 
 	/**
-	 * Gets page's viewport
+	 * Lays out page in viewport of run's width
+	 * @param run Page run
 	 */
-	private void getViewport()
+	private void getViewport(PageRun run)
 	{
-		_browserCanvas = new BrowserCanvas(_domAnalyzer.getRoot(),
-				_domAnalyzer, new java.awt.Dimension(1000, 600), _url);
-		_viewport = _browserCanvas.getViewport();
+		run.browserCanvas = new BrowserCanvas(run.analyzer.getRoot(),
+				run.analyzer, new Dimension(run.width, _viewportHeight), _url);
+		run.viewport = run.browserCanvas.getViewport();
 	}
 
 	/**
 	 * Exports rendered page to image.
+	 * @param run Page run
 	 */
-	private void exportPageToImage()
+	private void exportPageToImage(PageRun run)
 	{
 		try
 		{
-			BufferedImage page = _browserCanvas.getImage();
+			BufferedImage page = run.browserCanvas.getImage();
 			String filename = System.getProperty("user.dir") + "/page.png";
 			ImageIO.write(page, "png", new File(filename));
 		} catch (Exception e)
@@ -190,101 +309,165 @@ public class Vips {
 		return outputFolder;
 	}
 
+	/**
+	 * Chooses processing tier of page from its complexity and reserves
+	 * page's memory in memory budget. When estimated memory isn't available,
+	 * tier is degraded. Coarse tier waits until memory is available.
+	 * @param run Page run
+	 * @return Reserved memory in bytes or NOT_ADMITTED, if waiting for
+	 * memory was interrupted
+	 */
+	private long admitPage(PageRun run)
+	{
+		PageComplexity complexity = PageComplexity.measure(run.viewport);
+
+		run.processingTier = complexity.getProcessingTier();
+
+		if (_memoryBudget == null)
+			return 0;
+
+		while (run.processingTier != ProcessingTier.COARSE)
+		{
+			long memory = complexity.estimateMemory(run.processingTier, run.exportImages);
+
+			if (_memoryBudget.tryReserve(memory))
+				return memory;
+
+			run.processingTier = run.processingTier.degrade();
+		}
+
+		long memory = complexity.estimateMemory(run.processingTier, run.exportImages);
+
+		// interrupted flag of thread stays set
+		if (_memoryBudget.reserve(memory))
+			return memory;
+
+		return NOT_ADMITTED;
+	}
+
 	/**
 	 * Performs page segmentation.
+	 * @param run Page run
 	 */
-	private void performSegmentation()
+	private void performSegmentation(PageRun run)
 	{
 
-		startTime = System.nanoTime();
-		int numberOfIterations = 10;
-		int pageWidth = _viewport.getWidth();
-		int pageHeight = _viewport.getHeight();
+		long startTime = System.nanoTime();
+		// layout is already done and it can't be interrupted, so deadline
+		// covers segmentation only
+		VipsDeadline deadline = new VipsDeadline(_timeLimit);
+		int numberOfIterations = run.processingTier.getIterations();
+		int pageWidth = run.viewport.getWidth();
+		int pageHeight = run.viewport.getHeight();
+		int sizeTresholdWidth = 350;
+		int sizeTresholdHeight = 400;
+
+		if (run.exportImages)
+			exportPageToImage(run);
 
-		if (_graphicsOutput)
-			exportPageToImage();
+		VipsSeparatorGraphicsDetector detector = null;
 
-		VipsSeparatorGraphicsDetector detector;
-		VipsParser vipsParser = new VipsParser(_viewport);
+		if (run.exportImages)
+			detector = new VipsSeparatorGraphicsDetector(pageWidth, pageHeight);
+
+		VipsParser vipsParser = new VipsParser(run.viewport);
+		if (run.ruleTable != null)
+			vipsParser.setRuleTable(run.ruleTable);
 		VisualStructureConstructor constructor = new VisualStructureConstructor(_pDoC);
-		constructor.setGraphicsOutput(_graphicsOutput);
+		constructor.setGraphicsOutput(run.exportImages);
+
+		vipsParser.setDeadline(deadline);
+		constructor.setDeadline(deadline);
 
-		for (int iterationNumber = 1; iterationNumber < numberOfIterations+1; iterationNumber++)
+		try
 		{
-			detector = new VipsSeparatorGraphicsDetector(pageWidth, pageHeight);
+			for (int iterationNumber = 1; iterationNumber < numberOfIterations+1; iterationNumber++)
+			{
+				if (detector != null)
+					detector.reset(pageWidth, pageHeight);
 
-			//visual blocks detection
-			vipsParser.setSizeTresholdHeight(sizeTresholdHeight);
-			vipsParser.setSizeTresholdWidth(sizeTresholdWidth);
+				//visual blocks detection
+				vipsParser.setSizeTresholdHeight(sizeTresholdHeight);
+				vipsParser.setSizeTresholdWidth(sizeTresholdWidth);
 
-			vipsParser.parse();
+				vipsParser.parse();
 
-			VipsBlock vipsBlocks = vipsParser.getVipsBlocks();
+				VipsBlock vipsBlocks = vipsParser.getVipsBlocks();
 
-			if (iterationNumber == 1)
-			{
-				if (_graphicsOutput)
+				if (iterationNumber == 1)
+				{
+					if (run.exportImages)
+					{
+						// in first round we'll export global separators
+						detector.setVipsBlock(vipsBlocks);
+						detector.fillPool();
+						detector.saveToImage("blocks" + iterationNumber);
+						detector.setCleanUpSeparators(0);
+						detector.detectHorizontalSeparators();
+						detector.detectVerticalSeparators();
+						detector.exportHorizontalSeparatorsToImage();
+						detector.exportVerticalSeparatorsToImage();
+						detector.exportAllToImage();
+					}
+
+					// visual structure construction
+					constructor.setVipsBlocks(vipsBlocks);
+					constructor.setPageSize(pageWidth, pageHeight);
+				}
+				else
 				{
-					// in first round we'll export global separators
-					detector.setVipsBlock(vipsBlocks);
-					detector.fillPool();
-					detector.saveToImage("blocks" + iterationNumber);
-					detector.setCleanUpSeparators(0);
-					detector.detectHorizontalSeparators();
-					detector.detectVerticalSeparators();
-					detector.exportHorizontalSeparatorsToImage();
-					detector.exportVerticalSeparatorsToImage();
-					detector.exportAllToImage();
+					vipsBlocks = vipsParser.getVipsBlocks();
+					constructor.updateVipsBlocks(vipsBlocks);
+
+					if (run.exportImages)
+					{
+						detector.setVisualBlocks(constructor.getVisualBlocks());
+						detector.fillPool();
+						detector.saveToImage("blocks" + iterationNumber);
+					}
 				}
 
 				// visual structure construction
-				constructor.setVipsBlocks(vipsBlocks);
-				constructor.setPageSize(pageWidth, pageHeight);
-			}
-			else
-			{
-				vipsBlocks = vipsParser.getVipsBlocks();
-				constructor.updateVipsBlocks(vipsBlocks);
+				constructor.constructVisualStructure();
 
-				if (_graphicsOutput)
+				// prepare tresholds for next iteration
+				if (iterationNumber <= 5 )
 				{
-					detector.setVisualBlocks(constructor.getVisualBlocks());
-					detector.fillPool();
-					detector.saveToImage("blocks" + iterationNumber);
-				}
-			}
+					sizeTresholdHeight -= 50;
+					sizeTresholdWidth -= 50;
 
-			// visual structure construction
-			constructor.constructVisualStructure();
-
-			// prepare tresholds for next iteration
-			if (iterationNumber <= 5 )
-			{
-				sizeTresholdHeight -= 50;
-				sizeTresholdWidth -= 50;
+				}
+				if (iterationNumber == 6)
+				{
+					sizeTresholdHeight = 100;
+					sizeTresholdWidth = 100;
+				}
+				if (iterationNumber == 7)
+				{
+					sizeTresholdHeight = 80;
+					sizeTresholdWidth = 80;
+				}
+				if (iterationNumber == 8)
+				{
+					sizeTresholdHeight = 40;
+					sizeTresholdWidth = 10;
+				}
+				if (iterationNumber == 9)
+				{
+					sizeTresholdHeight = 1;
+					sizeTresholdWidth = 1;
+				}
 
 			}
-			if (iterationNumber == 6)
-			{
-				sizeTresholdHeight = 100;
-				sizeTresholdWidth = 100;
-			}
-			if (iterationNumber == 7)
-			{
-				sizeTresholdHeight = 80;
-				sizeTresholdWidth = 80;
-			}
-			if (iterationNumber == 8)
-			{
-				sizeTresholdHeight = 40;
-				sizeTresholdWidth = 10;
-			}
-			if (iterationNumber == 9)
-			{
-				sizeTresholdHeight = 1;
-				sizeTresholdWidth = 1;
-			}
+		}
+		catch (VipsTimeoutException e)
+		{
+			// use result of the last completed iteration
+			System.err.println(e.getMessage() + ", result will be partial");
+			run.partialResult = true;
 
+			if (!constructor.restoreSnapshot())
+				constructor.setPageStructure(vipsParser.getVipsBlocks(), pageWidth, pageHeight);
 		}
 
 		//		constructor.normalizeSeparatorsSoftMax();
@@ -292,12 +475,54 @@ public class Vips {
 
 		VipsOutput vipsOutput = new VipsOutput(_pDoC);
 		vipsOutput.setEscapeOutput(_outputEscaping);
-		vipsOutput.setOutputFileName(_filename);
-		vipsOutput.writeXML(constructor.getVisualStructure(), _viewport);
+		vipsOutput.setOutputFileName(run.filename);
+		vipsOutput.setSourceIndex(vipsParser.getSourceIndex());
+		vipsOutput.setPartial(run.partialResult);
+		vipsOutput.writeXML(constructor.getVisualStructure(), run.viewport);
 
-		endTime = System.nanoTime();
+		VipsSeparatorDetectorPool.release();
 
-		long diff = endTime - startTime;
+		run.executionTime = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Admits page to memory budget and performs its segmentation.
+	 * @param run Page run
+	 * @return True if page was segmented, false if it wasn't admitted
+	 */
+	private boolean segmentPage(PageRun run)
+	{
+		long reservedMemory = admitPage(run);
+
+		if (reservedMemory == NOT_ADMITTED)
+		{
+			System.err.println("Waiting for memory was interrupted, page of width " + run.width + " is skipped!");
+			return false;
+		}
+
+		if (run.processingTier != ProcessingTier.FULL)
+			System.err.println("Page of width " + run.width + " is processed with " + run.processingTier + " tier");
+
+		try
+		{
+			performSegmentation(run);
+		}
+		finally
+		{
+			if (_memoryBudget != null)
+				_memoryBudget.release(reservedMemory);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Prints execution time of page segmentation
+	 * @param run Page run
+	 */
+	private void printExecutionTime(PageRun run)
+	{
+		long diff = run.executionTime;
 
 		System.out.println("Execution time of VIPS: " + diff + " ns; " +
 				(diff / 1000000.0) + " ms; " +
@@ -341,6 +566,36 @@ public class Vips {
 		}));
 	}
 
+	/**
+	 * Creates output folder and makes it working directory, if output to
+	 * folder is enabled
+	 * @return Previous working directory
+	 */
+	private String enterOutputFolder()
+	{
+		String outputFolder = "";
+		String oldWorkingDirectory = "";
+		String newWorkingDirectory = "";
+
+		if (_outputToFolder)
+		{
+			outputFolder = generateFolderName();
+
+			if (!new File(outputFolder).mkdir())
+			{
+				System.err.println("Something goes wrong during directory creation!");
+			}
+			else
+			{
+				oldWorkingDirectory = System.getProperty("user.dir");
+				newWorkingDirectory += oldWorkingDirectory + "/" + outputFolder + "/";
+				System.setProperty("user.dir", newWorkingDirectory);
+			}
+		}
+
+		return oldWorkingDirectory;
+	}
+
 	/**
 	 * Starts visual segmentation of page
 	 * @throws Exception
@@ -355,42 +610,168 @@ public class Vips {
 			redirectOut();
 
 			getDomTree(_url);
-			startTime = System.nanoTime();
-			getViewport();
+			PageRun run = new PageRun(_domAnalyzer, _viewportWidth, _filename, _graphicsOutput, _ruleTable);
+			getViewport(run);
 			restoreOut();
 
-			String outputFolder = "";
-			String oldWorkingDirectory = "";
-			String newWorkingDirectory = "";
+			String oldWorkingDirectory = enterOutputFolder();
+
+			boolean segmented = false;
+
+			try
+			{
+				segmented = segmentPage(run);
+			}
+			finally
+			{
+				_processingTier = run.processingTier;
+				_partialResult = run.partialResult;
+			}
+
+			if (segmented)
+				printExecutionTime(run);
 
 			if (_outputToFolder)
+				System.setProperty("user.dir", oldWorkingDirectory);
+
+			//urlStream.close();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Something's wrong!");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts visual segmentation of page in several viewport widths. Page is
+	 * parsed and its styles are computed only once, layouts of all widths run
+	 * one after another and their segmentations run in parallel. Output of every width is written to file
+	 * with width suffix. Graphics output isn't used, so no images are
+	 * exported. Rule statistics of all widths are added to rule table.
+	 * @param widths Viewport widths in pixels
+	 */
+	public void startSegmentation(int[] widths)
+	{
+		ExecutorService executor = null;
+
+		try
+		{
+			redirectOut();
+
+			getDomTree(_url);
+
+			// every layout modifies its document and segmentation of every
+			// width reads its own layout, so every width gets its own copy
+			List<PageRun> runs = new ArrayList<PageRun>();
+			Set<Integer> usedWidths = new HashSet<Integer>();
+
+			for (int width : widths)
+			{
+				if (width <= 0)
+				{
+					System.err.println("Viewport width must be positive! Not " + width + "!");
+					continue;
+				}
+
+				// output of the same width would be written to the same file
+				if (!usedWidths.add(width))
+					continue;
+
+				// statistics of rule table aren't thread safe, so every width
+				// records them to its own copy
+				runs.add(new PageRun(SharedStyleAnalyzer.copyOf(_domAnalyzer, _url),
+						width, _filename + "_" + width, false,
+						(_ruleTable != null) ? _ruleTable.copy() : null));
+			}
+
+			if (runs.isEmpty())
 			{
-				outputFolder = generateFolderName();
+				restoreOut();
+				return;
+			}
 
-				if (!new File(outputFolder).mkdir())
+			String oldWorkingDirectory = enterOutputFolder();
+
+			executor = Executors.newFixedThreadPool(
+					Math.min(runs.size(), Runtime.getRuntime().availableProcessors()));
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			List<PageRun> completed = new ArrayList<PageRun>();
+
+			// layout modifies styles, that are shared with original document,
+			// so layouts run one at the time and only segmentations of
+			// finished layouts run in parallel
+			for (PageRun run : runs)
+				getViewport(run);
+
+			for (final PageRun run : runs)
+			{
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call()
+					{
+						return segmentPage(run);
+					}
+				}));
+			}
+
+			_processingTier = ProcessingTier.FULL;
+			_partialResult = false;
+
+			for (int i = 0; i < runs.size(); i++)
+			{
+				PageRun run = runs.get(i);
+
+				try
 				{
-					System.err.println("Something goes wrong during directory creation!");
+					// page wasn't admitted to memory budget
+					if (!results.get(i).get())
+						continue;
 				}
-				else
+				catch (ExecutionException e)
 				{
-					oldWorkingDirectory = System.getProperty("user.dir");
-					newWorkingDirectory += oldWorkingDirectory + "/" + outputFolder + "/";
-					System.setProperty("user.dir", newWorkingDirectory);
+					System.err.println("Segmentation of width " + run.width + " failed!");
+					e.getCause().printStackTrace();
+					continue;
 				}
+
+				// the cheapest tier and partial result of any width are reported
+				if (run.processingTier.compareTo(_processingTier) > 0)
+					_processingTier = run.processingTier;
+
+				_partialResult |= run.partialResult;
+				completed.add(run);
 			}
 
-			performSegmentation();
+			// all widths are finished, so their statistics can be merged
+			if (_ruleTable != null)
+			{
+				for (PageRun run : runs)
+					_ruleTable.mergeStatistics(run.ruleTable);
+			}
+
+			restoreOut();
+
+			for (PageRun run : completed)
+			{
+				System.out.print("Width " + run.width + ": ");
+				printExecutionTime(run);
+			}
 
 			if (_outputToFolder)
 				System.setProperty("user.dir", oldWorkingDirectory);
-
-			//urlStream.close();
 		}
 		catch (Exception e)
 		{
+			restoreOut();
 			System.err.println("Something's wrong!");
 			e.printStackTrace();
 		}
+		finally
+		{
+			if (executor != null)
+				executor.shutdownNow();
+		}
 	}
 
 	public void setOutputFileName(String filename)
@@ -6,67 +6,83 @@
 
 package org.fit.vips;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 import org.fit.cssbox.layout.Box;
 import org.fit.cssbox.layout.ElementBox;
 import org.fit.cssbox.layout.TextBox;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 /**
  * Class that represents block on page.
+ * <p>
+ * Blocks are created by VipsBlockTree, that also stores their children.
+ * <p>
+ * Block's id is its index in tree and children of block are stored as
+ * consecutive blocks of tree, so public constructors, setId() and
+ * addChild() aren't available anymore. Use VipsBlockTree.createBlock()
+ * instead of constructor and VipsBlockTree.createChildren() instead of
+ * adding children one by one. List returned by getChildren() is read only.
  * @author Tomas Popela
  *
  */
 public class VipsBlock {
 
+	//if node is image
+	private static final int IS_IMG = 1;
+	//if node is visual block
+	private static final int VISUAL_BLOCK = 2;
+	//if node contains table
+	private static final int CONTAIN_TABLE = 4;
+	//if node was already divided
+	private static final int ALREADY_DIVIDED = 8;
+	//if node can be divided
+	private static final int DIVIDABLE = 16;
+
+	//tree, that contains block
+	private final VipsBlockTree _tree;
+	//node id (index in tree)
+	private final int _id;
 	//rendered Box, that corresponds to DOM element
 	private Box _box = null;
-	//children of this node
-	private List<VipsBlock> _children = null;
-	//node id
-	private int _id = 0;
+	//tag of box's node
+	private VipsTag _tag = VipsTag.OTHER;
+	//node's flags
+	private int _flags = DIVIDABLE;
 	//node's Degree Of Coherence
 	private int _DoC = 0;
 
 	//number of images in node
 	private int _containImg = 0;
-	//if node is image
-	private boolean _isImg = false;
-	//if node is visual block
-	private boolean _isVisualBlock = false;
-	//if node contains table
-	private boolean _containTable = false;
 	//number of paragraphs in node
 	private int _containP = 0;
-	//if node was already divided
-	private boolean _alreadyDivided = false;
-	//if node can be divided
-	private boolean _isDividable = true;
-
-	private String _bgColor = null;
-
-	private int _frameSourceIndex = 0;
 	private int _sourceIndex = 0;
-	private int _tmpSrcIndex = 0;
-	private int _order = 0;
-
 
 	//length of text in node
 	private int _textLen = 0;
 	//length of text in links in node
 	private int _linkTextLen = 0;
+	//number of valid nodes under node
+	private int _validChildNodes = 0;
 
-	public VipsBlock() {
-		this._children = new ArrayList<VipsBlock>();
+	VipsBlock(VipsBlockTree tree, int id) {
+		this._tree = tree;
+		this._id = id;
 	}
 
-	public VipsBlock(int id, VipsBlock node) {
-		this._children = new ArrayList<VipsBlock>();
-		setId(id);
-		addChild(node);
+	private boolean hasFlag(int flag)
+	{
+		return (_flags & flag) != 0;
+	}
+
+	private void setFlag(int flag, boolean value)
+	{
+		if (value)
+			_flags |= flag;
+		else
+			_flags &= ~flag;
 	}
 
 	/**
@@ -75,8 +91,7 @@ public class VipsBlock {
 	 */
 	public void setIsVisualBlock(boolean isVisualBlock)
 	{
-		_isVisualBlock = isVisualBlock;
-		checkProperties();
+		setFlag(VISUAL_BLOCK, isVisualBlock);
 	}
 
 	/**
@@ -85,119 +100,161 @@ public class VipsBlock {
 	 */
 	public boolean isVisualBlock()
 	{
-		return _isVisualBlock;
+		return hasFlag(VISUAL_BLOCK);
 	}
 
 	/**
-	 * Checks the properties of visual block
+	 * Computes properties of block and all its descendants (images, tables,
+	 * paragraphs, length of text and length of text in links) in one
+	 * bottom-up pass. Also sets source index of every block.
+	 * <p>
+	 * Blocks are processed in reversed pre-order, so every block is processed
+	 * after all its descendants and deep trees can't overflow the stack.
+	 * @param sourceIndex Source indexes of page's nodes
+	 * @return Length of block's text (including new lines)
 	 */
-	private void checkProperties()
+	public int computeProperties(DomSourceIndex sourceIndex)
 	{
-		checkIsImg();
-		checkContainImg(this);
-		checkContainTable(this);
-		checkContainP(this);
-		_linkTextLen = 0;
-		_textLen = 0;
-		countTextLength(this);
-		countLinkTextLength(this);
-		setSourceIndex(this.getBox().getNode().getOwnerDocument());
-	}
+		List<VipsBlock> blocks = new ArrayList<VipsBlock>();
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(this);
 
-	/**
-	 * Checks if visual block is an image.
-	 */
-	private void checkIsImg()
-	{
-		if (_box.getNode().getNodeName().equals("img"))
-			_isImg = true;
-		else
-			_isImg = false;
-	}
+		while (!stack.isEmpty())
+		{
+			VipsBlock block = stack.pop();
+			blocks.add(block);
 
-	/**
-	 * Checks if visual block contains image.
-	 * @param vipsBlock Visual block
-	 */
-	private void checkContainImg(VipsBlock vipsBlock)
-	{
-		if (vipsBlock.getBox().getNode().getNodeName().equals("img"))
+			for (int i = _tree.getChildCount(block._id) - 1; i >= 0; i--)
+				stack.push(_tree.getChild(block._id, i));
+		}
+
+		// text lengths of processed subtrees, first child is on top
+		int[] textLengths = new int[blocks.size()];
+		int top = 0;
+
+		for (int i = blocks.size() - 1; i >= 0; i--)
 		{
-			vipsBlock._isImg = true;
-			this._containImg++;
+			VipsBlock block = blocks.get(i);
+			int textLength = block.computeOwnProperties(sourceIndex, textLengths, top);
+
+			top -= _tree.getChildCount(block._id);
+			textLengths[top++] = textLength;
 		}
 
-		for (VipsBlock childVipsBlock : vipsBlock.getChildren())
-			checkContainImg(childVipsBlock);
+		return textLengths[0];
 	}
 
 	/**
-	 * Checks if visual block contains table.
-	 * @param vipsBlock Visual block
+	 * Computes properties of block from already computed properties of its
+	 * children
+	 * @param sourceIndex Source indexes of page's nodes
+	 * @param textLengths Text lengths of children (first child on top)
+	 * @param top Top of text lengths stack
+	 * @return Length of block's text (including new lines)
 	 */
-	private void checkContainTable(VipsBlock vipsBlock)
+	private int computeOwnProperties(DomSourceIndex sourceIndex, int[] textLengths, int top)
 	{
-		if (vipsBlock.getBox().getNode().getNodeName().equals("table"))
-			this._containTable = true;
+		int textLength = 0;
 
-		for (VipsBlock childVipsBlock : vipsBlock.getChildren())
-			checkContainTable(childVipsBlock);
-	}
+		// generated nodes (Xdiv, Xspan) are not in document
+		_sourceIndex = Math.max(sourceIndex.getIndex(_box.getNode()), 0);
 
-	/**
-	 * Checks if visual block contains paragraph.
-	 * @param vipsBlock Visual block
-	 */
-	private void checkContainP(VipsBlock vipsBlock)
-	{
-		if (vipsBlock.getBox().getNode().getNodeName().equals("p"))
-			this._containP++;
+		setFlag(IS_IMG, _tag == VipsTag.IMG);
+		setFlag(CONTAIN_TABLE, _tag == VipsTag.TABLE);
+		_containImg = (_tag == VipsTag.IMG) ? 1 : 0;
+		_containP = (_tag == VipsTag.P) ? 1 : 0;
+		_textLen = 0;
+		_linkTextLen = 0;
+		_validChildNodes = 0;
 
-		for (VipsBlock childVipsBlock : vipsBlock.getChildren())
-			checkContainP(childVipsBlock);
-	}
+		if (_box instanceof TextBox)
+		{
+			String text = _box.getText();
 
-	/**
-	 * Counts length of text in links in visual block
-	 * @param vipsBlock Visual block
-	 */
-	private void countLinkTextLength(VipsBlock vipsBlock)
-	{
-		if (vipsBlock.getBox().getNode().getNodeName().equals("a"))
+			textLength = text.length();
+
+			for (int i = 0; i < textLength; i++)
+			{
+				if (text.charAt(i) != '\n')
+					_textLen++;
+			}
+		}
+		else
 		{
-			_linkTextLen += vipsBlock.getBox().getText().length();
+			ElementBox elementBox = (ElementBox) _box;
 
+			int childCount = _tree.getChildCount(_id);
+
+			for (int i = 0; i < childCount; i++)
+			{
+				VipsBlock child = _tree.getChild(_id, i);
+				int childTextLength = textLengths[top - 1 - i];
+
+				_containImg += child._containImg;
+				_containP += child._containP;
+				_linkTextLen += child._linkTextLen;
+				_validChildNodes += child._validChildNodes;
+
+				if (child.isValidNode(childTextLength))
+					_validChildNodes++;
+
+				if (child.hasFlag(CONTAIN_TABLE))
+					setFlag(CONTAIN_TABLE, true);
+
+				// only rendered children are part of element's text
+				if (i >= elementBox.getStartChild() && i < elementBox.getEndChild())
+				{
+					textLength += childTextLength;
+					_textLen += child._textLen;
+				}
+			}
 		}
 
-		for (VipsBlock childVipsBlock : vipsBlock.getChildren())
-			countLinkTextLength(childVipsBlock);
+		if (_tag == VipsTag.A)
+			_linkTextLen += textLength;
+
+		return textLength;
 	}
 
 	/**
-	 * Count length of text in visual block
-	 * @param vipsBlock Visual block
+	 * Checks if block's node is valid. Text node is valid if it's not
+	 * a single space, element is valid if it has non zero size.
+	 * @param textLength Length of block's text
+	 * @return True if node is valid, otherwise false
 	 */
-	private void countTextLength(VipsBlock vipsBlock)
+	private boolean isValidNode(int textLength)
 	{
-		_textLen = vipsBlock.getBox().getText().replaceAll("\n", "").length();
+		if (_box instanceof TextBox)
+			return !(textLength == 1 && _box.getText().equals(" "));
+
+		return _box.getWidth() > 0 && _box.getHeight() > 0;
 	}
 
 	/**
-	 * Adds new child to blocks children
-	 * @param child New child
+	 * Gets number of valid nodes among all block's descendants
+	 * @return Number of valid descendant nodes
 	 */
-	public void addChild(VipsBlock child)
+	public int getNumberOfValidChildNodes()
 	{
-		_children.add(child);
+		return _validChildNodes;
 	}
 
 	/**
 	 * Gets all blocks children
-	 * @return List of children
+	 * @return Read only list of children
 	 */
 	public List<VipsBlock> getChildren()
 	{
-		return _children;
+		return _tree.getChildren(_id);
+	}
+
+	/**
+	 * Gets tree, that contains block
+	 * @return Block's tree
+	 */
+	public VipsBlockTree getTree()
+	{
+		return _tree;
 	}
 
 	/**
@@ -207,6 +264,16 @@ public class VipsBlock {
 	public void setBox(Box box)
 	{
 		this._box = box;
+		this._tag = VipsTag.of(box);
+	}
+
+	/**
+	 * Gets tag of block's node
+	 * @return Tag
+	 */
+	public VipsTag getTag()
+	{
+		return _tag;
 	}
 
 	/**
@@ -231,12 +298,16 @@ public class VipsBlock {
 	}
 
 	/**
-	 * Sets block's id
-	 * @param id Id
+	 * Resets state, that is computed in every iteration of segmentation
+	 * (visual block flag, dividability and division). DoC is kept, because
+	 * blocks from previous iterations can still be nested in visual
+	 * structure and their DoC is used there.
 	 */
-	public void setId(int id)
+	public void resetIterationState()
 	{
-		this._id = id;
+		setFlag(VISUAL_BLOCK, false);
+		setFlag(DIVIDABLE, true);
+		setFlag(ALREADY_DIVIDED, false);
 	}
 
 	/**
@@ -272,7 +343,7 @@ public class VipsBlock {
 	 */
 	public boolean isDividable()
 	{
-		return _isDividable;
+		return hasFlag(DIVIDABLE);
 	}
 
 	/**
@@ -281,7 +352,7 @@ public class VipsBlock {
 	 */
 	public void setIsDividable(boolean isDividable)
 	{
-		this._isDividable = isDividable;
+		setFlag(DIVIDABLE, isDividable);
 	}
 
 	/**
@@ -290,7 +361,7 @@ public class VipsBlock {
 	 */
 	public boolean isAlreadyDivided()
 	{
-		return _alreadyDivided;
+		return hasFlag(ALREADY_DIVIDED);
 	}
 
 	/**
@@ -299,7 +370,7 @@ public class VipsBlock {
 	 */
 	public void setAlreadyDivided(boolean alreadyDivided)
 	{
-		this._alreadyDivided = alreadyDivided;
+		setFlag(ALREADY_DIVIDED, alreadyDivided);
 	}
 
 	/**
@@ -308,7 +379,7 @@ public class VipsBlock {
 	 */
 	public boolean isImg()
 	{
-		return _isImg;
+		return hasFlag(IS_IMG);
 	}
 
 	/**
@@ -326,7 +397,7 @@ public class VipsBlock {
 	 */
 	public boolean containTable()
 	{
-		return _containTable;
+		return hasFlag(CONTAIN_TABLE);
 	}
 
 	/**
@@ -356,55 +427,13 @@ public class VipsBlock {
 		return _containP;
 	}
 
-	/**
-	 * Finds background color of element
-	 * @param element Element
-	 */
-	private void findBgColor(Element element)
-	{
-		String backgroundColor = element.getAttribute("background-color");
-
-		if (backgroundColor.isEmpty())
-		{
-			if (element.getParentNode() != null &&
-					!(element.getParentNode() instanceof org.apache.xerces.dom.DeferredDocumentImpl))
-				findBgColor((Element) element.getParentNode());
-			else
-			{
-				_bgColor = "#ffffff";
-				return;
-			}
-		}
-		else
-		{
-			_bgColor = backgroundColor;
-			return;
-		}
-	}
-
 	/**
 	 * Gets background color of element
 	 * @return Background color
 	 */
 	public String getBgColor()
 	{
-		if (_bgColor != null)
-			return _bgColor;
-
-		if (this.getBox() instanceof TextBox)
-		{
-			_bgColor = "#ffffff";
-		}
-		else
-		{
-			_bgColor = this.getElementBox().getStylePropertyValue("background-color");
-		}
-
-
-		if (_bgColor.isEmpty())
-			findBgColor(this.getElementBox().getElement());
-
-		return _bgColor;
+		return _tree.getStyleCache().getBgColor(_box);
 	}
 
 	/**
@@ -413,7 +442,7 @@ public class VipsBlock {
 	 */
 	public int getFontSize()
 	{
-		return this.getBox().getVisualContext().getFont().getSize();
+		return _tree.getStyleCache().getFontSize(_box);
 	}
 
 	/**
@@ -422,17 +451,10 @@ public class VipsBlock {
 	 */
 	public String getFontWeight()
 	{
-		String fontWeight = "";
+		String fontWeight = _tree.getStyleCache().getFontWeight(_box);
 
-		if (this.getBox() instanceof TextBox)
-		{
-			return fontWeight;
-		}
-
-		if (this.getElementBox().getStylePropertyValue("font-weight") == null)
-			return fontWeight;
-
-		fontWeight = this.getElementBox().getStylePropertyValue("font-weight");
+		if (fontWeight == null)
+			return "";
 
 		if (fontWeight.isEmpty())
 			fontWeight = "normal";
@@ -446,24 +468,8 @@ public class VipsBlock {
 	 */
 	public int getFrameSourceIndex()
 	{
-		return _frameSourceIndex;
-	}
-
-	/**
-	 * Sets source index of block
-	 * @param node Node
-	 */
-	private void setSourceIndex(Node node)
-	{
-		if (!this.getBox().getNode().equals(node))
-			_tmpSrcIndex++;
-		else
-			_sourceIndex = _tmpSrcIndex;
-
-		for (int i = 0; i < node.getChildNodes().getLength(); i++)
-		{
-			setSourceIndex(node.getChildNodes().item(i));
-		}
+		// frames aren't processed, so all blocks are in main frame
+		return 0;
 	}
 
 	/**
@@ -481,7 +487,8 @@ public class VipsBlock {
 	 */
 	public int getOrder()
 	{
-		return _order;
+		// order is never set for blocks (only for visual structures)
+		return 0;
 	}
 
 }
@@ -0,0 +1,196 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsBlockTree.java
+ */
+
+package org.fit.vips;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fit.cssbox.layout.Box;
+import org.w3c.dom.Node;
+
+/**
+ * Page level storage of VIPS blocks.
+ * <p>
+ * Block's id is its index in tree. Children of block are created at once,
+ * so they have consecutive ids and block stores only id of its first child
+ * and number of children (next sibling of child is child with next id).
+ * Style properties of blocks are kept in page's style cache.
+ * @author Tomas Popela
+ *
+ */
+public class VipsBlockTree {
+
+	private VipsBlock[] _blocks = null;
+	private int[] _firstChild = null;
+	private int[] _childCount = null;
+	private int _size = 0;
+	private StyleCache _styleCache = null;
+	// source indexes of page's nodes
+	private DomSourceIndex _sourceIndex = null;
+
+	public VipsBlockTree()
+	{
+		_blocks = new VipsBlock[16];
+		_firstChild = new int[16];
+		_childCount = new int[16];
+		_styleCache = new StyleCache();
+	}
+
+	/**
+	 * Creates new block without children
+	 * @param box Block's box (can be null)
+	 * @return New block
+	 */
+	public VipsBlock createBlock(Box box)
+	{
+		ensureCapacity(_size + 1);
+
+		VipsBlock block = new VipsBlock(this, _size);
+		if (box != null)
+			block.setBox(box);
+
+		_blocks[_size] = block;
+		_firstChild[_size] = -1;
+		_childCount[_size] = 0;
+		_size++;
+
+		return block;
+	}
+
+	/**
+	 * Creates children of given block, one for every box. Children can be
+	 * created only once for every block.
+	 * @param parent Parent block
+	 * @param boxes Boxes of children
+	 */
+	public void createChildren(VipsBlock parent, List<Box> boxes)
+	{
+		if (_childCount[parent.getId()] != 0)
+		{
+			System.err.println("Children of block " + parent.getId() + " were already created");
+			return;
+		}
+
+		int firstChild = _size;
+
+		for (Box box : boxes)
+			createBlock(box);
+
+		_firstChild[parent.getId()] = firstChild;
+		_childCount[parent.getId()] = _size - firstChild;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= _blocks.length)
+			return;
+
+		int newCapacity = Math.max(capacity, _blocks.length * 2);
+
+		_blocks = Arrays.copyOf(_blocks, newCapacity);
+		_firstChild = Arrays.copyOf(_firstChild, newCapacity);
+		_childCount = Arrays.copyOf(_childCount, newCapacity);
+	}
+
+	/**
+	 * Gets block with given id
+	 * @param id Block's id
+	 * @return Block
+	 */
+	public VipsBlock getBlock(int id)
+	{
+		return _blocks[id];
+	}
+
+	/**
+	 * Gets number of children of given block
+	 * @param id Block's id
+	 * @return Number of children
+	 */
+	public int getChildCount(int id)
+	{
+		return _childCount[id];
+	}
+
+	/**
+	 * Gets child of given block
+	 * @param id Block's id
+	 * @param index Index of child
+	 * @return Child block
+	 */
+	public VipsBlock getChild(int id, int index)
+	{
+		if (index < 0 || index >= _childCount[id])
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _childCount[id]);
+
+		return _blocks[_firstChild[id] + index];
+	}
+
+	/**
+	 * Gets read only view of block's children
+	 * @param id Block's id
+	 * @return Children
+	 */
+	public List<VipsBlock> getChildren(final int id)
+	{
+		return new AbstractList<VipsBlock>() {
+			@Override
+			public VipsBlock get(int index)
+			{
+				return getChild(id, index);
+			}
+
+			@Override
+			public int size()
+			{
+				return _childCount[id];
+			}
+		};
+	}
+
+	/**
+	 * Gets number of blocks in tree
+	 * @return Number of blocks
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Gets style cache of page
+	 * @return Style cache
+	 */
+	public StyleCache getStyleCache()
+	{
+		return _styleCache;
+	}
+
+	/**
+	 * Sets source indexes of page's nodes
+	 * @param sourceIndex Source indexes
+	 */
+	public void setSourceIndex(DomSourceIndex sourceIndex)
+	{
+		_sourceIndex = sourceIndex;
+	}
+
+	/**
+	 * Gets source indexes of page's nodes. If they weren't set for given
+	 * document yet, they are built once and kept for next calls.
+	 * @param document Page's document
+	 * @return Source indexes
+	 */
+	public DomSourceIndex getSourceIndex(Node document)
+	{
+		if (_sourceIndex == null || !_sourceIndex.isIndexOf(document))
+			_sourceIndex = new DomSourceIndex(document);
+
+		return _sourceIndex;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsDeadline.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Wall clock deadline of page segmentation.
+ * <p>
+ * Long running loops call {@link #checkpoint()}, that throws
+ * {@link VipsTimeoutException} when deadline expires. Clock is read only
+ * on every CHECK_INTERVAL-th checkpoint, so checkpoints are cheap.
+ * Deadline is used by one thread only.
+ * @author Tomas Popela
+ *
+ */
+public class VipsDeadline {
+
+	/** Deadline, that never expires */
+	public static final VipsDeadline NONE = new VipsDeadline(0);
+
+	// number of checkpoints between two reads of clock
+	private static final int CHECK_INTERVAL = 256;
+
+	private final long _timeLimit;
+	private final long _deadline;
+	private int _checkpoints = 0;
+
+	/**
+	 * Creates deadline, that expires after given time from now
+	 * @param timeLimit Time limit in milliseconds (0 or less for no limit)
+	 */
+	public VipsDeadline(long timeLimit)
+	{
+		this._timeLimit = timeLimit;
+		this._deadline = System.nanoTime() + timeLimit * 1000000L;
+	}
+
+	/**
+	 * Checks if deadline has time limit
+	 * @return True if deadline can expire, otherwise false
+	 */
+	public boolean isLimited()
+	{
+		return _timeLimit > 0;
+	}
+
+	/**
+	 * Checks if deadline already expired
+	 * @return True if deadline expired, otherwise false
+	 */
+	public boolean isExpired()
+	{
+		return isLimited() && System.nanoTime() - _deadline >= 0;
+	}
+
+	/**
+	 * Cancellation point of long running computation
+	 * @throws VipsTimeoutException if deadline expired
+	 */
+	public void checkpoint()
+	{
+		if (!isLimited())
+			return;
+
+		_checkpoints++;
+
+		if (_checkpoints < CHECK_INTERVAL)
+			return;
+
+		_checkpoints = 0;
+
+		if (isExpired())
+			throw new VipsTimeoutException(_timeLimit);
+	}
+}
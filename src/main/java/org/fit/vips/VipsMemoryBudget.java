@@ -0,0 +1,100 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsMemoryBudget.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Memory budget shared by all pages of one batch.
+ * <p>
+ * Every page reserves its estimated memory before segmentation and returns
+ * it after. When memory isn't available, page is processed with cheaper
+ * tier or it waits until other pages finish. Waiting reservation bigger than
+ * whole budget is limited to the budget, so every page can be processed.
+ * @author Tomas Popela
+ *
+ */
+public class VipsMemoryBudget {
+
+	private final long _capacity;
+	private long _reserved = 0;
+
+	/**
+	 * @param capacity Memory of budget in bytes
+	 */
+	public VipsMemoryBudget(long capacity)
+	{
+		this._capacity = capacity;
+	}
+
+	/**
+	 * Reserves memory, if it's available now
+	 * @param bytes Memory in bytes
+	 * @return True if memory was reserved, otherwise false
+	 */
+	public synchronized boolean tryReserve(long bytes)
+	{
+		if (_reserved + bytes > _capacity)
+			return false;
+
+		_reserved += bytes;
+
+		return true;
+	}
+
+	/**
+	 * Reserves memory, waits until it's available
+	 * @param bytes Memory in bytes
+	 * @return True if memory was reserved, false if thread was interrupted
+	 */
+	public synchronized boolean reserve(long bytes)
+	{
+		bytes = Math.min(bytes, _capacity);
+
+		while (_reserved + bytes > _capacity)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		_reserved += bytes;
+
+		return true;
+	}
+
+	/**
+	 * Returns reserved memory to budget
+	 * @param bytes Memory in bytes (the same value as was reserved)
+	 */
+	public synchronized void release(long bytes)
+	{
+		_reserved -= Math.min(bytes, _capacity);
+
+		notifyAll();
+	}
+
+	/**
+	 * @return Memory of budget in bytes
+	 */
+	public long getCapacity()
+	{
+		return _capacity;
+	}
+
+	/**
+	 * @return Memory, that isn't reserved
+	 */
+	public synchronized long getAvailable()
+	{
+		return _capacity - _reserved;
+	}
+}
@@ -9,6 +9,9 @@ package org.fit.vips;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -36,6 +39,8 @@ public final class VipsOutput {
 	private int _pDoC = 0;
 	private int _order = 1;
 	private String _filename = "VIPSResult";
+	private DomSourceIndex _sourceIndex = null;
+	private boolean _partial = false;
 
 	public VipsOutput() {
 	}
@@ -68,16 +73,56 @@ public final class VipsOutput {
 	}
 
 	/**
-	 * Append node from given visual structure to parent node
-	 * @param parentNode Given visual structure
-	 * @param visualStructure Parent node
+	 * Append nodes from given visual structure and its descendants to parent node
+	 * @param parentNode Parent node
+	 * @param visualStructure Given visual structure
 	 */
 	private void writeVisualBlocks(Element parentNode, VisualStructure visualStructure)
+	{
+		// parent node, structure, that will be appended to it, and its id
+		// (ids are built from positions of structures during walk)
+		Deque<Element> parentNodes = new ArrayDeque<Element>();
+		Deque<VisualStructure> structures = new ArrayDeque<VisualStructure>();
+		Deque<String> ids = new ArrayDeque<String>();
+
+		parentNodes.push(parentNode);
+		structures.push(visualStructure);
+		ids.push(visualStructure.getId());
+
+		while (!structures.isEmpty())
+		{
+			VisualStructure actualStructure = structures.pop();
+			String id = ids.pop();
+			Element layoutNode = writeVisualBlock(parentNodes.pop(), actualStructure, id);
+
+			if (layoutNode == null)
+				continue;
+
+			// push children in reverse order, so they are written in document order
+			List<VisualStructure> children = actualStructure.getChildrenVisualStructures();
+			for (int i = children.size() - 1; i >= 0; i--)
+			{
+				parentNodes.push(layoutNode);
+				structures.push(children.get(i));
+				ids.push(id + "-" + (i + 1));
+			}
+		}
+	}
+
+	/**
+	 * Append node from given visual structure to parent node
+	 * @param parentNode Parent node
+	 * @param visualStructure Given visual structure
+	 * @param id Id of visual structure
+	 * @return Appended node, if segmentation continues with structure's
+	 * children, otherwise null
+	 */
+	private Element writeVisualBlock(Element parentNode, VisualStructure visualStructure, String id)
 	{
 		Element layoutNode = doc.createElement("LayoutNode");
 
 		layoutNode.setAttribute("FrameSourceIndex", String.valueOf(visualStructure.getFrameSourceIndex()));
-		layoutNode.setAttribute("SourceIndex", visualStructure.getSourceIndex());
+		layoutNode.setAttribute("SourceIndex", visualStructure.getSourceIndex(_sourceIndex));
 		layoutNode.setAttribute("DoC", String.valueOf(visualStructure.getDoC()));
 		layoutNode.setAttribute("ContainImg", String.valueOf(visualStructure.containImg()));
 		layoutNode.setAttribute("IsImg", String.valueOf(visualStructure.isImg()));
@@ -94,7 +139,7 @@ public final class VipsOutput {
 		layoutNode.setAttribute("ObjectRectTop", String.valueOf(visualStructure.getY()));
 		layoutNode.setAttribute("ObjectRectWidth", String.valueOf(visualStructure.getWidth()));
 		layoutNode.setAttribute("ObjectRectHeight", String.valueOf(visualStructure.getHeight()));
-		layoutNode.setAttribute("ID", visualStructure.getId());
+		layoutNode.setAttribute("ID", id);
 		layoutNode.setAttribute("order", String.valueOf(_order));
 
 		_order++;
@@ -115,8 +160,7 @@ public final class VipsOutput {
 						if (elementBox == null)
 							continue;
 
-						if (!elementBox.getNode().getNodeName().equals("Xdiv") &&
-								!elementBox.getNode().getNodeName().equals("Xspan"))
+						if (block.getTag() != VipsTag.XDIV && block.getTag() != VipsTag.XSPAN)
 							src += getSource(elementBox.getElement());
 						else
 							src += elementBox.getText();
@@ -131,8 +175,7 @@ public final class VipsOutput {
 
 			parentNode.appendChild(layoutNode);
 
-			for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-				writeVisualBlocks(layoutNode, child);
+			return layoutNode;
 		}
 		else
 		{
@@ -148,8 +191,7 @@ public final class VipsOutput {
 					if (elementBox == null)
 						continue;
 
-					if (!elementBox.getNode().getNodeName().equals("Xdiv") &&
-							!elementBox.getNode().getNodeName().equals("Xspan"))
+					if (block.getTag() != VipsTag.XDIV && block.getTag() != VipsTag.XSPAN)
 						src += getSource(elementBox.getElement());
 					else
 						src += elementBox.getText();
@@ -162,6 +204,8 @@ public final class VipsOutput {
 			}
 
 			parentNode.appendChild(layoutNode);
+
+			return null;
 		}
 	}
 
@@ -193,8 +237,17 @@ public final class VipsOutput {
 			vipsElement.setAttribute("neworder", "0");
 			vipsElement.setAttribute("order", String.valueOf(pageViewport.getOrder()));
 
+			if (_partial)
+				vipsElement.setAttribute("Partial", "true");
+
 			doc.appendChild(vipsElement);
 
+			Document pageDocument = pageViewport.getRootElement().getOwnerDocument();
+
+			// index of previous page can't be used for this one
+			if (_sourceIndex == null || !_sourceIndex.isIndexOf(pageDocument))
+				_sourceIndex = new DomSourceIndex(pageDocument);
+
 			writeVisualBlocks(vipsElement, visualStructure);
 
 			TransformerFactory transformerFactory = TransformerFactory.newInstance();
@@ -256,6 +309,25 @@ public final class VipsOutput {
 		}
 	}
 
+	/**
+	 * Sets source indexes of page's nodes, so they don't have to be
+	 * computed again
+	 * @param sourceIndex Source indexes
+	 */
+	public void setSourceIndex(DomSourceIndex sourceIndex)
+	{
+		_sourceIndex = sourceIndex;
+	}
+
+	/**
+	 * Marks output as partial result (segmentation was interrupted)
+	 * @param partial True for partial result, otherwise false
+	 */
+	public void setPartial(boolean partial)
+	{
+		_partial = partial;
+	}
+
 	/**
 	 * Sets output filename
 	 * @param filename Filename
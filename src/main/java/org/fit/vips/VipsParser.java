@@ -6,8 +6,12 @@
 
 package org.fit.vips;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.fit.cssbox.layout.Box;
 import org.fit.cssbox.layout.ElementBox;
@@ -22,8 +26,17 @@ import org.w3c.dom.Node;
 public class VipsParser {
 
 	private VipsBlock _vipsBlocks = null;
+	// all blocks of page, tree is built only once per page
+	private VipsBlockTree _blockTree = null;
 	private VipsBlock _currentVipsBlock = null;
-	private VipsBlock _tempVipsBlock = null;
+	// VIPS blocks of DOM nodes
+	private Map<Node, VipsBlock> _nodeVipsBlocks = null;
+	private DomSourceIndex _sourceIndex = null;
+	// rules, that are applied on nodes
+	private VipsRuleTable _ruleTable = null;
+	// statistics of boxes, that are independent of iteration
+	private Map<Box, BoxStatistics> _boxStatistics = null;
+	private VipsDeadline _deadline = VipsDeadline.NONE;
 
 	private int _sizeTresholdWidth = 0;
 	private int _sizeTresholdHeight = 0;
@@ -39,7 +52,10 @@ public class VipsParser {
 	 */
 	public VipsParser(Viewport viewport) {
 		this._viewport = viewport;
-		this._vipsBlocks = new VipsBlock();
+		this._blockTree = new VipsBlockTree();
+		this._vipsBlocks = _blockTree.createBlock(null);
+		this._nodeVipsBlocks = new IdentityHashMap<Node, VipsBlock>();
+		this._ruleTable = VipsRuleTable.createDefault();
 		this._sizeTresholdHeight = 80;
 		this._sizeTresholdWidth = 80;
 		this._pageWidth = viewport.getWidth();
@@ -54,7 +70,10 @@ public class VipsParser {
 	 */
 	public VipsParser(Viewport viewport, int sizeTresholdWidth, int sizeTresholdHeight) {
 		this._viewport = viewport;
-		this._vipsBlocks = new VipsBlock();
+		this._blockTree = new VipsBlockTree();
+		this._vipsBlocks = _blockTree.createBlock(null);
+		this._nodeVipsBlocks = new IdentityHashMap<Node, VipsBlock>();
+		this._ruleTable = VipsRuleTable.createDefault();
 		this._sizeTresholdHeight = sizeTresholdHeight;
 		this._sizeTresholdWidth = sizeTresholdWidth;
 	}
@@ -66,10 +85,21 @@ public class VipsParser {
 	{
 		if (_viewport != null)
 		{
-			this._vipsBlocks = new VipsBlock();
 			_visualBlocksCount = 0;
 
-			constructVipsBlockTree(_viewport.getElementBoxByName("body", false), _vipsBlocks);
+			// box tree doesn't change between iterations, so block tree
+			// is built only once and then just reset
+			if (_vipsBlocks.getBox() == null)
+			{
+				constructVipsBlockTree(_viewport.getElementBoxByName("body", false), _vipsBlocks);
+				_vipsBlocks.computeProperties(getSourceIndex());
+			}
+			else
+			{
+				for (int i = 0; i < _blockTree.size(); i++)
+					_blockTree.getBlock(i).resetIterationState();
+			}
+
 			divideVipsBlockTree(_vipsBlocks);
 
 			getVisualBlocksCount(_vipsBlocks);
@@ -79,29 +109,63 @@ public class VipsParser {
 			System.err.print("Page's viewPort is not defined");
 	}
 
+	/**
+	 * Gets source indexes of page's nodes. Indexes are computed only once
+	 * for the page.
+	 * @return Source indexes
+	 */
+	public DomSourceIndex getSourceIndex()
+	{
+		if (_sourceIndex == null)
+		{
+			_sourceIndex = new DomSourceIndex(_viewport.getElementBoxByName("body", false).getNode().getOwnerDocument());
+			// visual structures look up source indexes through blocks' tree
+			_blockTree.setSourceIndex(_sourceIndex);
+		}
+
+		return _sourceIndex;
+	}
+
 	/**
 	 * Counts number of visual blocks in visual structure
 	 * @param vipsBlock Visual structure
 	 */
 	private void getVisualBlocksCount(VipsBlock vipsBlock)
 	{
-		if (vipsBlock.isVisualBlock())
-			_visualBlocksCount++;
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(vipsBlock);
 
-		for (VipsBlock vipsBlockChild : vipsBlock.getChildren())
+		while (!stack.isEmpty())
 		{
-			if (!(vipsBlockChild.getBox() instanceof TextBox))
-				getVisualBlocksCount(vipsBlockChild);
+			VipsBlock actualBlock = stack.pop();
+
+			if (actualBlock.isVisualBlock())
+				_visualBlocksCount++;
+
+			for (VipsBlock vipsBlockChild : actualBlock.getChildren())
+			{
+				if (!(vipsBlockChild.getBox() instanceof TextBox))
+					stack.push(vipsBlockChild);
+			}
 		}
 	}
 
 	private void findVisualBlocks(VipsBlock vipsBlock, List<VipsBlock> list)
 	{
-		if (vipsBlock.isVisualBlock())
-			list.add(vipsBlock);
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(vipsBlock);
+
+		while (!stack.isEmpty())
+		{
+			VipsBlock actualBlock = stack.pop();
 
-		for (VipsBlock vipsStructureChild : vipsBlock.getChildren())
-			findVisualBlocks(vipsStructureChild, list);
+			if (actualBlock.isVisualBlock())
+				list.add(actualBlock);
+
+			// push children in reverse order, so they are processed in document order
+			for (int i = actualBlock.getChildren().size() - 1; i >= 0; i--)
+				stack.push(actualBlock.getChildren().get(i));
+		}
 	}
 
 	public List<VipsBlock> getVisualBlocks()
@@ -123,13 +187,24 @@ public class VipsParser {
 	{
 		node.setBox(element);
 
-		if (! (element instanceof TextBox))
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(node);
+
+		while (!stack.isEmpty())
 		{
-			for (Box box: ((ElementBox) element).getSubBoxList())
-			{
-				node.addChild(new VipsBlock());
-				constructVipsBlockTree(box, node.getChildren().get(node.getChildren().size()-1));
-			}
+			VipsBlock actualBlock = stack.pop();
+			Box actualBox = actualBlock.getBox();
+
+			_nodeVipsBlocks.put(actualBox.getNode(), actualBlock);
+
+			if (actualBox instanceof TextBox)
+				continue;
+
+			_blockTree.createChildren(actualBlock, ((ElementBox) actualBox).getSubBoxList());
+
+			// push children in reverse order, so they are processed in document order
+			for (int i = actualBlock.getChildren().size() - 1; i >= 0; i--)
+				stack.push(actualBlock.getChildren().get(i));
 		}
 	}
 
@@ -138,6 +213,24 @@ public class VipsParser {
 	 * @param vipsBlock Visual structure
 	 */
 	private void divideVipsBlockTree(VipsBlock vipsBlock)
+	{
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(vipsBlock);
+
+		while (!stack.isEmpty())
+		{
+			_deadline.checkpoint();
+			divideVipsBlock(stack.pop(), stack);
+		}
+	}
+
+	/**
+	 * Tries to divide one DOM element. Children of divided element are pushed
+	 * to given stack.
+	 * @param vipsBlock Visual structure
+	 * @param stack Blocks, that have to be processed
+	 */
+	private void divideVipsBlock(VipsBlock vipsBlock, Deque<VipsBlock> stack)
 	{
 		_currentVipsBlock = vipsBlock;
 		ElementBox elementBox = (ElementBox) vipsBlock.getBox();
@@ -154,10 +247,13 @@ public class VipsParser {
 		{
 			// if element is dividable, let's divide it
 			_currentVipsBlock.setAlreadyDivided(true);
-			for (VipsBlock vipsBlockChild : vipsBlock.getChildren())
+			// push children in reverse order, so they are processed in document order
+			for (int i = vipsBlock.getChildren().size() - 1; i >= 0; i--)
 			{
+				VipsBlock vipsBlockChild = vipsBlock.getChildren().get(i);
+
 				if (!(vipsBlockChild.getBox() instanceof TextBox))
-					divideVipsBlockTree(vipsBlockChild);
+					stack.push(vipsBlockChild);
 			}
 		}
 		else
@@ -181,36 +277,31 @@ public class VipsParser {
 		}
 	}
 
-	private int getAllTextLength(ElementBox node)
+	/**
+	 * Gets statistics of given box. Statistics of all boxes on page are
+	 * computed at first call.
+	 * @param node Box
+	 * @return Box's statistics
+	 */
+	private BoxStatistics getBoxStatistics(Box node)
 	{
-		List<Box> childrenTextNodes = new ArrayList<Box>();
-
-		findTextChildrenNodes(node, childrenTextNodes);
-
-		int textLength = 0;
-
-		for (Box child : childrenTextNodes)
+		if (_boxStatistics == null)
 		{
-			String childText = child.getText();
-
-			if (!childText.equals("") && !childText.equals(" ") && !childText.equals("\n"))
-				textLength += childText.length();
+			_boxStatistics = new IdentityHashMap<Box, BoxStatistics>();
+			BoxStatistics.compute(_viewport.getElementBoxByName("body", false), _boxStatistics);
 		}
 
-		return textLength;
-	}
+		BoxStatistics statistics = _boxStatistics.get(node);
 
-	private void getAllChildren(Box node, List<Box> children)
-	{
-		children.add(node);
+		if (statistics == null)
+			statistics = BoxStatistics.compute(node, _boxStatistics);
 
-		if (node instanceof TextBox)
-			return;
+		return statistics;
+	}
 
-		for (Box child : ((ElementBox) node).getSubBoxList())
-		{
-			getAllChildren(child, children);
-		}
+	private int getAllTextLength(ElementBox node)
+	{
+		return getBoxStatistics(node).getTextLength();
 	}
 
 	private boolean verifyValidity(ElementBox node)
@@ -242,48 +333,12 @@ public class VipsParser {
 
 		if (getAllTextLength(node) == 0)
 		{
-			List<Box> children = new ArrayList<Box>();
-
-			getAllChildren(node, children);
-
-			for (Box child : children)
-			{
-				String childNodeName = child.getNode().getNodeName();
-
-				if (!child.isVisible())
-					continue;
-
-				if (childNodeName.equals("img"))
-					return true;
-				if (childNodeName.equals("input"))
-					return true;
-			}
-
-			return false;
+			return getBoxStatistics(node).containsTag(BoxStatistics.VISIBLE_IMG | BoxStatistics.VISIBLE_INPUT);
 		}
 
 		return true;
 	}
 
-	/**
-	 * Checks, if node is a valid node.
-	 * <p>
-	 * Node is valid, if it's visible in browser. This means, that the node's
-	 * width and height are not zero.
-	 * 
-	 * @param node
-	 *            Input node
-	 * 
-	 * @return True, if node is valid, otherwise false.
-	 */
-	private boolean isValidNode(ElementBox node)
-	{
-		if (node.getHeight() > 0 && node.getWidth() > 0)
-			return true;
-
-		return false;
-	}
-
 	/**
 	 * Checks, if node is a text node.
 	 * 
@@ -294,7 +349,7 @@ public class VipsParser {
 	 */
 	private boolean isTextNode(ElementBox box)
 	{
-		return (box.getNode().getNodeName().equals("text")) ? true : false;
+		return (getTag(box) == VipsTag.TEXT) ? true : false;
 	}
 
 	/**
@@ -364,36 +419,14 @@ public class VipsParser {
 		return false;
 	}
 
-	int _cnt = 0;
-
-	private void checkValidChildrenNodes(Box node)
-	{
-		if (node instanceof TextBox)
-		{
-			if (!node.getText().equals(" "))
-			{
-				_cnt++;
-			}
-			return;
-		}
-		else
-		{
-			if (isValidNode((ElementBox) node))
-				_cnt++;
-		}
-
-		for (Box childNode : ((ElementBox) node).getSubBoxList())
-		{
-			checkValidChildrenNodes(childNode);
-		}
-	}
-
 	/*
 	 * Checks if node has valid children nodes
 	 */
 	private boolean hasValidChildrenNodes(ElementBox node)
 	{
-		if (node.getNode().getNodeName().equals("img") || node.getNode().getNodeName().equals("input") )
+		VipsTag tag = getTag(node);
+
+		if (tag == VipsTag.IMG || tag == VipsTag.INPUT)
 		{
 			if (node.getContentWidth() > 0 && node.getContentHeight() > 0)
 			{
@@ -408,14 +441,7 @@ public class VipsParser {
 		if (node.getSubBoxList().isEmpty())
 			return false;
 
-		_cnt = 0;
-
-		for (Box child : node.getSubBoxList())
-		{
-			checkValidChildrenNodes(child);
-		}
-
-		return (_cnt > 0) ? true : false;
+		return (numberOfValidChildNodes(node) > 0) ? true : false;
 	}
 
 	/*
@@ -423,17 +449,35 @@ public class VipsParser {
 	 */
 	private int numberOfValidChildNodes(ElementBox node)
 	{
-		_cnt = 0;
+		return getVipsBlock(node).getNumberOfValidChildNodes();
+	}
 
-		if (node.getSubBoxList().isEmpty())
-			return _cnt;
+	/**
+	 * Gets tag of given box
+	 * @param node Box
+	 * @return Tag
+	 */
+	private VipsTag getTag(Box node)
+	{
+		// tag of current block is already known
+		if (_currentVipsBlock != null && _currentVipsBlock.getBox() == node)
+			return _currentVipsBlock.getTag();
 
-		for (Box child : node.getSubBoxList())
-		{
-			checkValidChildrenNodes(child);
-		}
+		return VipsTag.of(node);
+	}
+
+	/**
+	 * Gets VIPS block of given box
+	 * @param node Box
+	 * @return VIPS block
+	 */
+	private VipsBlock getVipsBlock(Box node)
+	{
+		// rules are always applied on current block
+		if (_currentVipsBlock.getBox() == node)
+			return _currentVipsBlock;
 
-		return _cnt;
+		return _nodeVipsBlocks.get(node.getNode());
 	}
 
 	/**
@@ -443,256 +487,37 @@ public class VipsParser {
 	 */
 	private boolean applyVipsRules(ElementBox node)
 	{
-		boolean retVal = false;
+		VipsRuleTable.Category category;
 
 		//System.err.println("Applying VIPS rules on " + node.getNode().getNodeName() + " node");
 
 		if (!node.isBlock())
 		{
-			retVal = applyInlineTextNodeVipsRules(node);
-		}
-		else if (node.getNode().getNodeName().equals("table"))
-		{
-			retVal = applyTableNodeVipsRules(node);
-		}
-		else if (node.getNode().getNodeName().equals("tr"))
-		{
-			retVal = applyTrNodeVipsRules(node);
-		}
-		else if (node.getNode().getNodeName().equals("td"))
-		{
-			retVal = applyTdNodeVipsRules(node);
-		}
-		else if (node.getNode().getNodeName().equals("p"))
-		{
-			retVal = applyPNodeVipsRules(node);
+			category = VipsRuleTable.Category.INLINE;
 		}
 		else
 		{
-			retVal = applyOtherNodeVipsRules(node);
+			switch (getTag(node))
+			{
+				case TABLE:
+					category = VipsRuleTable.Category.TABLE;
+					break;
+				case TR:
+					category = VipsRuleTable.Category.TR;
+					break;
+				case TD:
+					category = VipsRuleTable.Category.TD;
+					break;
+				case P:
+					category = VipsRuleTable.Category.P;
+					break;
+				default:
+					category = VipsRuleTable.Category.OTHER;
+					break;
+			}
 		}
 
-		return retVal;
-	}
-
-	/**
-	 * Applies VIPS rules on block nodes other than &lt;P&gt; &lt;TD&gt;
-	 * &lt;TR&gt; &lt;TABLE&gt;.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyOtherNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 4 6 8 9 11
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleFour(node))
-			return true;
-
-		if (ruleSix(node))
-			return true;
-
-		if (ruleEight(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleEleven(node))
-			return true;
-
-		return false;
-	}
-
-	/**
-	 * Applies VIPS rules on &lt;P&gt; node.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyPNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 4 5 6 8 9 11
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleFour(node))
-			return true;
-
-		if (ruleFive(node))
-			return true;
-
-		if (ruleSix(node))
-			return true;
-
-		if (ruleSeven(node))
-			return true;
-
-		if (ruleEight(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleTen(node))
-			return true;
-
-		if (ruleEleven(node))
-			return true;
-
-		if (ruleTwelve(node))
-			return true;
-
-		return false;
-	}
-
-	/**
-	 * Applies VIPS rules on &lt;TD&gt; node.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyTdNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 4 8 9 10 12
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleFour(node))
-			return true;
-
-		if (ruleEight(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleTen(node))
-			return true;
-
-		if (ruleTwelve(node))
-			return true;
-
-		return false;
-	}
-
-	/**
-	 * Applies VIPS rules on &TR;&gt; node.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyTrNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 7 9 12
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleSeven(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleTwelve(node))
-			return true;
-
-		return false;
-	}
-
-	/**
-	 * Applies VIPS rules on &lt;TABLE&gt; node.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyTableNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 7 9 12
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleSeven(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleTwelve(node))
-			return true;
-
-		return false;
-	}
-
-	/**
-	 * Applies VIPS rules on inline nodes.
-	 * @param node Node
-	 * @return Returns true if one of rules success and node is dividable.
-	 */
-	private boolean applyInlineTextNodeVipsRules(ElementBox node)
-	{
-		// 1 2 3 4 5 6 8 9 11
-
-		if (ruleOne(node))
-			return true;
-
-		if (ruleTwo(node))
-			return true;
-
-		if (ruleThree(node))
-			return true;
-
-		if (ruleFour(node))
-			return true;
-
-		if (ruleFive(node))
-			return true;
-
-		if (ruleSix(node))
-			return true;
-
-		if (ruleEight(node))
-			return true;
-
-		if (ruleNine(node))
-			return true;
-
-		if (ruleTwelve(node))
-			return true;
-
-		return false;
+		return _ruleTable.apply(category, this, node);
 	}
 
 	/**
@@ -706,7 +531,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleOne(ElementBox node)
+	boolean ruleOne(ElementBox node)
 	{
 		//System.err.println("Applying rule One on " + node.getNode().getNodeName() + " node");
 
@@ -733,7 +558,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleTwo(ElementBox node)
+	boolean ruleTwo(ElementBox node)
 	{
 		//System.err.println("Applying rule Two on " + node.getNode().getNodeName() + " node");
 
@@ -760,7 +585,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleThree(ElementBox node)
+	boolean ruleThree(ElementBox node)
 	{
 		//System.err.println("Applying rule Three on " + node.getNode().getNodeName() + " node");
 
@@ -822,7 +647,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleFour(ElementBox node)
+	boolean ruleFour(ElementBox node)
 	{
 		//System.err.println("Applying rule Four on " + node.getNode().getNodeName() + " node");
 
@@ -853,7 +678,7 @@ public class VipsParser {
 				_currentVipsBlock.getChildren().get(0).setDoC(11);
 			}
 			 */
-			if (node.getSubBox(0).getNode().getNodeName().equals("em"))
+			if (getTag(node.getSubBox(0)) == VipsTag.EM)
 				_currentVipsBlock.setDoC(11);
 			else
 				_currentVipsBlock.setDoC(10);
@@ -862,10 +687,11 @@ public class VipsParser {
 
 		String fontWeight = "";
 		int fontSize = 0;
+		StyleCache styleCache = _blockTree.getStyleCache();
 
 		for (Box childNode : node.getSubBoxList())
 		{
-			int childFontSize = childNode.getVisualContext().getFont().getSize();
+			int childFontSize = styleCache.getFontSize(childNode);
 
 			if (childNode instanceof TextBox)
 			{
@@ -884,14 +710,14 @@ public class VipsParser {
 				continue;
 			}
 
-			ElementBox child = (ElementBox) childNode;
+			String childFontWeight = styleCache.getFontWeight(childNode);
 
-			if (child.getStylePropertyValue("font-weight") == null)
+			if (childFontWeight == null)
 				return false;
 
 			if (fontSize > 0)
 			{
-				if (child.getStylePropertyValue("font-weight").toString().equals(fontWeight) &&
+				if (childFontWeight.equals(fontWeight) &&
 						childFontSize == fontSize)
 				{
 					_currentVipsBlock.setDoC(10);
@@ -904,7 +730,7 @@ public class VipsParser {
 			}
 			else
 			{
-				fontWeight = child.getStylePropertyValue("font-weight").toString();
+				fontWeight = childFontWeight;
 				fontSize = childFontSize;
 			}
 		}
@@ -923,7 +749,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleFive(ElementBox node)
+	boolean ruleFive(ElementBox node)
 	{
 		//System.err.println("Applying rule Five on " + node.getNode().getNodeName() + " node");
 
@@ -948,22 +774,13 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleSix(ElementBox node)
+	boolean ruleSix(ElementBox node)
 	{
 		//System.err.println("Applying rule Six on " + node.getNode().getNodeName() + " node");
 		if (node.getSubBoxList().isEmpty())
 			return false;
 
-		List<Box> children = new ArrayList<Box>();
-		getAllChildren(node, children);
-
-		for (Box child : children)
-		{
-			if (child.getNode().getNodeName().equals("hr"))
-				return true;
-		}
-
-		return false;
+		return getBoxStatistics(node).containsTag(BoxStatistics.HR);
 	}
 
 	/**
@@ -980,7 +797,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleSeven(ElementBox node)
+	boolean ruleSeven(ElementBox node)
 	{
 		//System.err.println("Applying rule Seven on " + node.getNode().getNodeName() + " node");
 		if (node.getSubBoxList().isEmpty())
@@ -1008,20 +825,6 @@ public class VipsParser {
 	}
 
 
-	private void findTextChildrenNodes(Box node, List<Box> results)
-	{
-		if (node instanceof TextBox)
-		{
-			results.add(node);
-			return;
-		}
-
-		for (Box childNode : ((ElementBox) node).getSubBoxList())
-		{
-			findTextChildrenNodes(childNode, results);
-		}
-	}
-
 	/**
 	 * VIPS Rule Eight
 	 * <p>
@@ -1034,39 +837,33 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleEight(ElementBox node)
+	boolean ruleEight(ElementBox node)
 	{
 		//System.err.println("Applying rule Eight on " + node.getNode().getNodeName() + " node");
 		if (node.getSubBoxList().isEmpty())
 			return false;
 
 
-		List<Box> children = new ArrayList<Box>();
-
-		findTextChildrenNodes(node, children);
+		BoxStatistics statistics = getBoxStatistics(node);
 
-		int cnt = children.size();
+		int cnt = statistics.getTextNodesCount();
 
 		if (cnt == 0)
 			return false;
 
 		if (node.getWidth() == 0 || node.getHeight() == 0)
 		{
-			children.clear();
-
-			getAllChildren(node, children);
-
-			for (Box child : children)
-			{
-				if (child.getWidth() != 0 && child.getHeight() != 0)
-					return true;
-			}
+			// some of children has non zero size
+			if (statistics.getSizedBoxesCount() > 0)
+				return true;
 		}
 
 		if (node.getWidth() * node.getHeight() > _sizeTresholdHeight * _sizeTresholdWidth)
 			return false;
 
-		if (node.getNode().getNodeName().equals("ul"))
+		VipsTag tag = getTag(node);
+
+		if (tag == VipsTag.UL)
 		{
 			return true;
 		}
@@ -1074,14 +871,19 @@ public class VipsParser {
 		_currentVipsBlock.setIsVisualBlock(true);
 		_currentVipsBlock.setIsDividable(false);
 
-		if (node.getNode().getNodeName().equals("Xdiv"))
-			_currentVipsBlock.setDoC(7);
-		else if (node.getNode().getNodeName().equals("code"))
-			_currentVipsBlock.setDoC(7);
-		else if (node.getNode().getNodeName().equals("div"))
-			_currentVipsBlock.setDoC(5);
-		else
-			_currentVipsBlock.setDoC(8);
+		switch (tag)
+		{
+			case XDIV:
+			case CODE:
+				_currentVipsBlock.setDoC(7);
+				break;
+			case DIV:
+				_currentVipsBlock.setDoC(5);
+				break;
+			default:
+				_currentVipsBlock.setDoC(8);
+				break;
+		}
 		return true;
 	}
 
@@ -1096,7 +898,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleNine(ElementBox node)
+	boolean ruleNine(ElementBox node)
 	{
 		//System.err.println("Applying rule Nine on " + node.getNode().getNodeName() + " node");
 		if (node.getSubBoxList().isEmpty())
@@ -1121,9 +923,11 @@ public class VipsParser {
 		_currentVipsBlock.setIsVisualBlock(true);
 		_currentVipsBlock.setIsDividable(false);
 
-		if (node.getNode().getNodeName().equals("Xdiv"))
+		VipsTag tag = getTag(node);
+
+		if (tag == VipsTag.XDIV)
 			_currentVipsBlock.setDoC(7);
-		if (node.getNode().getNodeName().equals("a"))
+		if (tag == VipsTag.A)
 			_currentVipsBlock.setDoC(11);
 		else
 			_currentVipsBlock.setDoC(8);
@@ -1140,20 +944,16 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleTen(ElementBox node)
+	boolean ruleTen(ElementBox node)
 	{
 		//System.err.println("Applying rule Ten on " + node.getNode().getNodeName() + " node");
 
-		//VipsBlock previousSiblingVipsBlock = null;
-		//findPreviousSiblingNodeVipsBlock(node.getNode().getPreviousSibling(), _vipsBlocks, previousSiblingVipsBlock);
-
-		_tempVipsBlock = null;
-		findPreviousSiblingNodeVipsBlock(node.getNode().getPreviousSibling(), _vipsBlocks);
+		VipsBlock previousSiblingVipsBlock = _nodeVipsBlocks.get(node.getNode().getPreviousSibling());
 
-		if (_tempVipsBlock == null)
+		if (previousSiblingVipsBlock == null)
 			return false;
 
-		if (_tempVipsBlock.isAlreadyDivided())
+		if (previousSiblingVipsBlock.isAlreadyDivided())
 			return true;
 
 		return false;
@@ -1168,7 +968,7 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleEleven(ElementBox node)
+	boolean ruleEleven(ElementBox node)
 	{
 		//System.err.println("Applying rule Eleven on " + node.getNode().getNodeName() + " node");
 
@@ -1185,29 +985,59 @@ public class VipsParser {
 	 * 
 	 * @return True, if rule is applied, otherwise false.
 	 */
-	private boolean ruleTwelve(ElementBox node)
+	boolean ruleTwelve(ElementBox node)
 	{
 		//System.err.println("Applying rule Twelve on " + node.getNode().getNodeName() + " node");
 
 		_currentVipsBlock.setIsDividable(false);
 		_currentVipsBlock.setIsVisualBlock(true);
 
-		if (node.getNode().getNodeName().equals("Xdiv"))
-			_currentVipsBlock.setDoC(7);
-		else if (node.getNode().getNodeName().equals("li"))
-			_currentVipsBlock.setDoC(8);
-		else if (node.getNode().getNodeName().equals("span"))
-			_currentVipsBlock.setDoC(8);
-		else if (node.getNode().getNodeName().equals("sup"))
-			_currentVipsBlock.setDoC(8);
-		else if (node.getNode().getNodeName().equals("img"))
-			_currentVipsBlock.setDoC(8);
-		else
-			_currentVipsBlock.setDoC(333);
+		switch (getTag(node))
+		{
+			case XDIV:
+				_currentVipsBlock.setDoC(7);
+				break;
+			case LI:
+			case SPAN:
+			case SUP:
+			case IMG:
+				_currentVipsBlock.setDoC(8);
+				break;
+			default:
+				_currentVipsBlock.setDoC(333);
+				break;
+		}
 		//TODO DoC Part
 		return true;
 	}
 
+	/**
+	 * Sets table of rules, that are applied on nodes
+	 * @param ruleTable Rule table
+	 */
+	public void setRuleTable(VipsRuleTable ruleTable)
+	{
+		this._ruleTable = ruleTable;
+	}
+
+	/**
+	 * Sets deadline of page, that is checked during division of blocks
+	 * @param deadline Deadline
+	 */
+	public void setDeadline(VipsDeadline deadline)
+	{
+		this._deadline = deadline;
+	}
+
+	/**
+	 * Gets table of rules, that are applied on nodes
+	 * @return Rule table
+	 */
+	public VipsRuleTable getRuleTable()
+	{
+		return _ruleTable;
+	}
+
 	/**
 	 * @return the _sizeTresholdWidth
 	 */
@@ -1245,20 +1075,4 @@ public class VipsParser {
 		return _vipsBlocks;
 	}
 
-	/**
-	 * Finds previous sibling node's VIPS block.
-	 * @param node Node
-	 * @param vipsBlock Actual VIPS block
-	 */
-	private void findPreviousSiblingNodeVipsBlock(Node node, VipsBlock vipsBlock)
-	{
-		if (vipsBlock.getBox().getNode().equals(node))
-		{
-			_tempVipsBlock = vipsBlock;
-			return;
-		}
-		else
-			for (VipsBlock vipsBlockChild : vipsBlock.getChildren())
-				findPreviousSiblingNodeVipsBlock(node, vipsBlockChild);
-	}
 }
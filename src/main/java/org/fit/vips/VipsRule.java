@@ -0,0 +1,30 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsRule.java
+ */
+
+package org.fit.vips;
+
+import org.fit.cssbox.layout.ElementBox;
+
+/**
+ * Rule, that decides if DOM node will be divided.
+ * @author Tomas Popela
+ *
+ */
+public interface VipsRule {
+
+	/**
+	 * Applies rule on given node
+	 * @param parser Parser, that processes the node
+	 * @param node Node
+	 * @return True, if rule is applied, otherwise false.
+	 */
+	public boolean apply(VipsParser parser, ElementBox node);
+
+	/**
+	 * @return Rule's name
+	 */
+	public String getName();
+}
@@ -0,0 +1,87 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsRuleStatistics.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Statistics of one VIPS rule.
+ * @author Tomas Popela
+ *
+ */
+public class VipsRuleStatistics {
+
+	private long _invocations = 0;
+	private long _hits = 0;
+	private long _time = 0;
+
+	/**
+	 * Records one application of rule
+	 * @param applied True if rule was applied
+	 * @param time Time spent in rule in nanoseconds
+	 */
+	public void record(boolean applied, long time)
+	{
+		_invocations++;
+
+		if (applied)
+			_hits++;
+
+		_time += time;
+	}
+
+	/**
+	 * Adds other statistics of the same rule to these statistics
+	 * @param statistics Other statistics
+	 */
+	public void add(VipsRuleStatistics statistics)
+	{
+		_invocations += statistics._invocations;
+		_hits += statistics._hits;
+		_time += statistics._time;
+	}
+
+	/**
+	 * @return Number of rule's invocations
+	 */
+	public long getInvocations()
+	{
+		return _invocations;
+	}
+
+	/**
+	 * @return Number of invocations, when rule was applied
+	 */
+	public long getHits()
+	{
+		return _hits;
+	}
+
+	/**
+	 * @return Cumulative time spent in rule in nanoseconds (only when
+	 * profiling is enabled)
+	 */
+	public long getTime()
+	{
+		return _time;
+	}
+
+	/**
+	 * Resets all statistics
+	 */
+	public void reset()
+	{
+		_invocations = 0;
+		_hits = 0;
+		_time = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "invocations: " + _invocations + "; hits: " + _hits +
+				"; time: " + (_time / 1000000.0) + " ms";
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsRuleTable.java
+ */
+
+package org.fit.vips;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fit.cssbox.layout.ElementBox;
+
+/**
+ * Table of VIPS rules, that are applied on different kinds of nodes.
+ * <p>
+ * Rules are applied in given order until one of them is applied. Table also
+ * counts invocations of every rule and, if profiling is enabled, time
+ * spent in it.
+ * @author Tomas Popela
+ *
+ */
+public class VipsRuleTable {
+
+	/**
+	 * Kinds of nodes with own set of rules
+	 */
+	public enum Category {
+		INLINE,
+		TABLE,
+		TR,
+		TD,
+		P,
+		OTHER
+	}
+
+	private Map<Category, List<VipsRule>> _rules = null;
+	private Map<VipsRule, VipsRuleStatistics> _statistics = null;
+	private boolean _profilingEnabled = false;
+
+	/**
+	 * Creates empty table
+	 */
+	public VipsRuleTable()
+	{
+		_rules = new EnumMap<Category, List<VipsRule>>(Category.class);
+		_statistics = new LinkedHashMap<VipsRule, VipsRuleStatistics>();
+
+		for (Category category : Category.values())
+			_rules.put(category, new ArrayList<VipsRule>());
+	}
+
+	/**
+	 * Creates table with default VIPS rules
+	 * @return Table
+	 */
+	public static VipsRuleTable createDefault()
+	{
+		VipsRuleTable table = new VipsRuleTable();
+
+		table.setRules(Category.OTHER, DefaultVipsRule.ONE, DefaultVipsRule.TWO,
+				DefaultVipsRule.THREE, DefaultVipsRule.FOUR, DefaultVipsRule.SIX,
+				DefaultVipsRule.EIGHT, DefaultVipsRule.NINE, DefaultVipsRule.ELEVEN);
+
+		table.setRules(Category.P, DefaultVipsRule.values());
+
+		table.setRules(Category.TD, DefaultVipsRule.ONE, DefaultVipsRule.TWO,
+				DefaultVipsRule.THREE, DefaultVipsRule.FOUR, DefaultVipsRule.EIGHT,
+				DefaultVipsRule.NINE, DefaultVipsRule.TEN, DefaultVipsRule.TWELVE);
+
+		table.setRules(Category.TR, DefaultVipsRule.ONE, DefaultVipsRule.TWO,
+				DefaultVipsRule.THREE, DefaultVipsRule.SEVEN, DefaultVipsRule.NINE,
+				DefaultVipsRule.TWELVE);
+
+		table.setRules(Category.TABLE, DefaultVipsRule.ONE, DefaultVipsRule.TWO,
+				DefaultVipsRule.THREE, DefaultVipsRule.SEVEN, DefaultVipsRule.NINE,
+				DefaultVipsRule.TWELVE);
+
+		table.setRules(Category.INLINE, DefaultVipsRule.ONE, DefaultVipsRule.TWO,
+				DefaultVipsRule.THREE, DefaultVipsRule.FOUR, DefaultVipsRule.FIVE,
+				DefaultVipsRule.SIX, DefaultVipsRule.EIGHT, DefaultVipsRule.NINE,
+				DefaultVipsRule.TWELVE);
+
+		return table;
+	}
+
+	/**
+	 * Creates table with the same rules and profiling setting, but with
+	 * empty statistics. Copy can be used by another thread (rules
+	 * themselves are shared, so they must not keep any state).
+	 * @return Copy of table
+	 */
+	public VipsRuleTable copy()
+	{
+		VipsRuleTable table = new VipsRuleTable();
+
+		for (Category category : Category.values())
+			table.setRules(category, _rules.get(category));
+
+		table._profilingEnabled = _profilingEnabled;
+
+		return table;
+	}
+
+	/**
+	 * Sets rules for given category of nodes
+	 * @param category Category
+	 * @param rules Rules in order, in which they will be applied
+	 */
+	public void setRules(Category category, VipsRule... rules)
+	{
+		List<VipsRule> categoryRules = _rules.get(category);
+
+		categoryRules.clear();
+
+		for (VipsRule rule : rules)
+			categoryRules.add(rule);
+	}
+
+	/**
+	 * Sets rules for given category of nodes
+	 * @param category Category
+	 * @param rules Rules in order, in which they will be applied
+	 */
+	public void setRules(Category category, List<VipsRule> rules)
+	{
+		setRules(category, rules.toArray(new VipsRule[rules.size()]));
+	}
+
+	/**
+	 * Gets rules of given category
+	 * @param category Category
+	 * @return Rules
+	 */
+	public List<VipsRule> getRules(Category category)
+	{
+		return Collections.unmodifiableList(_rules.get(category));
+	}
+
+	/**
+	 * Removes rule from all categories
+	 * @param rule Rule
+	 */
+	public void disableRule(VipsRule rule)
+	{
+		for (List<VipsRule> rules : _rules.values())
+			rules.remove(rule);
+	}
+
+	/**
+	 * Applies rules of given category on node
+	 * @param category Category of node
+	 * @param parser Parser, that processes the node
+	 * @param node Node
+	 * @return True if one of rules was applied, otherwise false
+	 */
+	public boolean apply(Category category, VipsParser parser, ElementBox node)
+	{
+		for (VipsRule rule : _rules.get(category))
+		{
+			if (apply(rule, parser, node))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Applies one rule and records its statistics
+	 * @param rule Rule
+	 * @param parser Parser, that processes the node
+	 * @param node Node
+	 * @return True if rule was applied, otherwise false
+	 */
+	private boolean apply(VipsRule rule, VipsParser parser, ElementBox node)
+	{
+		VipsRuleStatistics statistics = getStatistics(rule);
+
+		if (!_profilingEnabled)
+		{
+			boolean applied = rule.apply(parser, node);
+			statistics.record(applied, 0);
+			return applied;
+		}
+
+		long start = System.nanoTime();
+		boolean applied = rule.apply(parser, node);
+		statistics.record(applied, System.nanoTime() - start);
+
+		return applied;
+	}
+
+	/**
+	 * Gets statistics of given rule
+	 * @param rule Rule
+	 * @return Statistics
+	 */
+	public VipsRuleStatistics getStatistics(VipsRule rule)
+	{
+		VipsRuleStatistics statistics = _statistics.get(rule);
+
+		if (statistics == null)
+		{
+			statistics = new VipsRuleStatistics();
+			_statistics.put(rule, statistics);
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Adds statistics of all rules from other table to this table's
+	 * statistics
+	 * @param table Other table
+	 */
+	public void mergeStatistics(VipsRuleTable table)
+	{
+		for (Map.Entry<VipsRule, VipsRuleStatistics> entry : table._statistics.entrySet())
+			getStatistics(entry.getKey()).add(entry.getValue());
+	}
+
+	/**
+	 * Resets statistics of all rules
+	 */
+	public void resetStatistics()
+	{
+		for (VipsRuleStatistics statistics : _statistics.values())
+			statistics.reset();
+	}
+
+	/**
+	 * Prints statistics of all rules
+	 * @param out Output stream
+	 */
+	public void printStatistics(PrintStream out)
+	{
+		for (Map.Entry<VipsRule, VipsRuleStatistics> entry : _statistics.entrySet())
+			out.println(entry.getKey().getName() + ": " + entry.getValue());
+	}
+
+	/**
+	 * Enables or disables measuring of time spent in rules
+	 * @param enabled True for enable, otherwise false
+	 */
+	public void setProfilingEnabled(boolean enabled)
+	{
+		_profilingEnabled = enabled;
+	}
+
+	/**
+	 * @return True if profiling is enabled, otherwise false
+	 */
+	public boolean isProfilingEnabled()
+	{
+		return _profilingEnabled;
+	}
+}
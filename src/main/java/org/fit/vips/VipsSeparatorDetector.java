@@ -40,4 +40,8 @@ public interface VipsSeparatorDetector {
 
 	public boolean isCleanUpEnabled();
 
+	public void reset(int width, int height);
+
+	public void setDeadline(VipsDeadline deadline);
+
 }
@@ -0,0 +1,94 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsSeparatorDetectorPool.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Per thread pool of separators detectors.
+ * <p>
+ * Detectors are reset before they are returned, so their internal buffers
+ * (and image in case of graphics detector) are reused between computations.
+ * Detector returned from pool is valid only until next call from the same thread.
+ * @author Tomas Popela
+ *
+ */
+public final class VipsSeparatorDetectorPool {
+
+	private static final ThreadLocal<VipsSeparatorGraphicsDetector> _graphicsDetector =
+			new ThreadLocal<VipsSeparatorGraphicsDetector>();
+	private static final ThreadLocal<VipsSeparatorNonGraphicsDetector> _nonGraphicsDetector =
+			new ThreadLocal<VipsSeparatorNonGraphicsDetector>();
+
+	private VipsSeparatorDetectorPool()
+	{
+	}
+
+	/**
+	 * Gets reset graphics detector for current thread.
+	 * @param width Pools width
+	 * @param height Pools height
+	 * @return Graphics detector
+	 */
+	public static VipsSeparatorGraphicsDetector getGraphicsDetector(int width, int height)
+	{
+		VipsSeparatorGraphicsDetector detector = _graphicsDetector.get();
+
+		if (detector == null)
+		{
+			detector = new VipsSeparatorGraphicsDetector(width, height);
+			_graphicsDetector.set(detector);
+		}
+		else
+			detector.reset(width, height);
+
+		return detector;
+	}
+
+	/**
+	 * Gets reset non graphics detector for current thread.
+	 * @param width Pools width
+	 * @param height Pools height
+	 * @return Non graphics detector
+	 */
+	public static VipsSeparatorNonGraphicsDetector getNonGraphicsDetector(int width, int height)
+	{
+		VipsSeparatorNonGraphicsDetector detector = _nonGraphicsDetector.get();
+
+		if (detector == null)
+		{
+			detector = new VipsSeparatorNonGraphicsDetector(width, height);
+			_nonGraphicsDetector.set(detector);
+		}
+		else
+			detector.reset(width, height);
+
+		return detector;
+	}
+
+	/**
+	 * Gets reset detector for current thread.
+	 * @param graphics True for graphics detector, otherwise false
+	 * @param width Pools width
+	 * @param height Pools height
+	 * @return Separators detector
+	 */
+	public static VipsSeparatorDetector getDetector(boolean graphics, int width, int height)
+	{
+		if (graphics)
+			return getGraphicsDetector(width, height);
+		else
+			return getNonGraphicsDetector(width, height);
+	}
+
+	/**
+	 * Releases detectors of current thread (and their buffers).
+	 */
+	public static void release()
+	{
+		_graphicsDetector.remove();
+		_nonGraphicsDetector.remove();
+	}
+}
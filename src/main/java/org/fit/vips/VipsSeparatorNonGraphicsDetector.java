@@ -6,8 +6,9 @@
 
 package org.fit.vips;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 import org.fit.cssbox.layout.TextBox;
@@ -22,11 +23,19 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	List<VipsBlock> _visualBlocks = null;
 	private List<Separator> _horizontalSeparators = null;
 	private List<Separator> _verticalSeparators = null;
+	// separators pools used during detection
+	private SeparatorTable _horizontalTable = null;
+	private SeparatorTable _verticalTable = null;
+	// buffers reused between detections
+	private List<VipsBlock> _overlappedBlocks = null;
+	private List<VipsBlock> _topAdjacentBlocks = null;
+	private List<VipsBlock> _bottomAdjacentBlocks = null;
 
 	private int _width = 0;
 	private int _height = 0;
 
 	private int _cleanSeparatorsTreshold = 0;
+	private VipsDeadline _deadline = VipsDeadline.NONE;
 
 	/**
 	 * Defaults constructor.
@@ -39,17 +48,52 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 		this._horizontalSeparators = new ArrayList<Separator>();
 		this._verticalSeparators = new ArrayList<Separator>();
 		this._visualBlocks = new ArrayList<VipsBlock>();
+		this._horizontalTable = new SeparatorTable();
+		this._verticalTable = new SeparatorTable();
+		this._overlappedBlocks = new ArrayList<VipsBlock>();
+		this._topAdjacentBlocks = new ArrayList<VipsBlock>();
+		this._bottomAdjacentBlocks = new ArrayList<VipsBlock>();
+	}
+
+	/**
+	 * Resets detector, so it can be reused for another computation.
+	 * @param width Pools width
+	 * @param height Pools height
+	 */
+	@Override
+	public void reset(int width, int height)
+	{
+		this._width = width;
+		this._height = height;
+		this._vipsBlocks = null;
+		this._cleanSeparatorsTreshold = 0;
+		this._deadline = VipsDeadline.NONE;
+		_visualBlocks.clear();
+		_horizontalSeparators.clear();
+		_verticalSeparators.clear();
+		_horizontalTable.clear();
+		_verticalTable.clear();
 	}
 
 	private void fillPoolWithBlocks(VipsBlock vipsBlock)
 	{
-		if (vipsBlock.isVisualBlock())
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(vipsBlock);
+
+		while (!stack.isEmpty())
 		{
-			_visualBlocks.add(vipsBlock);
-		}
+			_deadline.checkpoint();
+
+			VipsBlock actualBlock = stack.pop();
+
+			if (actualBlock.isVisualBlock())
+			{
+				_visualBlocks.add(actualBlock);
+			}
 
-		for (VipsBlock vipsBlockChild : vipsBlock.getChildren())
-			fillPoolWithBlocks(vipsBlockChild);
+			for (int i = actualBlock.getChildren().size() - 1; i >= 0; i--)
+				stack.push(actualBlock.getChildren().get(i));
+		}
 	}
 
 	/**
@@ -110,247 +154,145 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 */
 	private void findVerticalSeparators()
 	{
-		for (VipsBlock vipsBlock : _visualBlocks)
-		{
-			// block vertical coordinates
-			int blockStart = vipsBlock.getBox().getAbsoluteContentX();
-			int blockEnd = blockStart + vipsBlock.getBox().getContentWidth();
-
-			// for each separator that we have in pool
-			for (Separator separator : _verticalSeparators)
-			{
-				// find separator, that intersects with our visual block
-				if (blockStart < separator.endPoint)
-				{
-					// next there are six relations that the separator and visual block can have
-
-					// if separator is inside visual block
-					if (blockStart < separator.startPoint && blockEnd >= separator.endPoint)
-					{
-						List<Separator> tempSeparators = new ArrayList<Separator>();
-						tempSeparators.addAll(_verticalSeparators);
-
-						//remove all separators, that are included in block
-						for (Separator other : tempSeparators)
-						{
-							if (blockStart < other.startPoint && blockEnd > other.endPoint)
-								_verticalSeparators.remove(other);
-						}
-
-						//find separator, that is on end of this block (if exists)
-						for (Separator other : _verticalSeparators)
-						{
-							// and if it's necessary change it's start point
-							if (blockEnd > other.startPoint && blockEnd < other.endPoint)
-							{
-								other.startPoint = blockEnd + 1;
-								break;
-							}
-						}
-						break;
-					}
-					// if block is inside another block -> skip it
-					if (blockEnd < separator.startPoint)
-						break;
-					// if separator starts in the middle of block
-					if (blockStart < separator.startPoint && blockEnd >= separator.startPoint)
-					{
-						// change separator start's point coordinate
-						separator.startPoint = blockEnd+1;
-						break;
-					}
-					// if block is inside the separator
-					if (blockStart >= separator.startPoint && blockEnd <= separator.endPoint)
-					{
-						if (blockStart == separator.startPoint)
-						{
-							separator.startPoint = blockEnd+1;
-							break;
-						}
-						if (blockEnd == separator.endPoint)
-						{
-							separator.endPoint = blockStart - 1;
-							break;
-						}
-						// add new separator that starts behind the block
-						_verticalSeparators.add(_verticalSeparators.indexOf(separator) + 1, new Separator(blockEnd + 1, separator.endPoint));
-						// change end point coordinates of separator, that's before block
-						separator.endPoint = blockStart - 1;
-						break;
-					}
-					// if in one block is one separator ending and another one starting
-					if (blockStart > separator.startPoint && blockStart < separator.endPoint)
-					{
-						// find the next one
-						int nextSeparatorIndex =_verticalSeparators.indexOf(separator);
-
-						// if it's not the last separator
-						if (nextSeparatorIndex + 1 < _verticalSeparators.size())
-						{
-							Separator nextSeparator = _verticalSeparators.get(_verticalSeparators.indexOf(separator) + 1);
-
-							// next separator is really starting before the block ends
-							if (blockEnd > nextSeparator.startPoint && blockEnd < nextSeparator.endPoint)
-							{
-								// change separator start point coordinate
-								separator.endPoint = blockStart - 1;
-								nextSeparator.startPoint = blockEnd + 1;
-								break;
-							}
-							else
-							{
-								List<Separator> tempSeparators = new ArrayList<Separator>();
-								tempSeparators.addAll(_verticalSeparators);
-
-								//remove all separators, that are included in block
-								for (Separator other : tempSeparators)
-								{
-									if (blockStart < other.startPoint && other.endPoint < blockEnd)
-									{
-										_verticalSeparators.remove(other);
-										continue;
-									}
-									if (blockEnd > other.startPoint && blockEnd < other.endPoint)
-									{
-										// change separator start's point coordinate
-										other.startPoint = blockEnd+1;
-										break;
-									}
-									if (blockStart > other.startPoint && blockStart < other.endPoint)
-									{
-										other.endPoint = blockStart-1;
-										continue;
-									}
-								}
-								break;
-							}
-						}
-					}
-					// if separator ends in the middle of block
-					// change it's end point coordinate
-					separator.endPoint = blockStart-1;
-					break;
-				}
-			}
-		}
+		findSeparators(_verticalTable, false);
 	}
 
 	/**
 	 * Computes horizontal visual separators
 	 */
 	private void findHorizontalSeparators()
+	{
+		findSeparators(_horizontalTable, true);
+	}
+
+	/**
+	 * Computes visual separators in given direction
+	 * @param separators Separators pool
+	 * @param horizontal True for horizontal separators, otherwise false
+	 */
+	private void findSeparators(SeparatorTable separators, boolean horizontal)
 	{
 		for (VipsBlock vipsBlock : _visualBlocks)
 		{
-			// block vertical coordinates
-			int blockStart = vipsBlock.getBox().getAbsoluteContentY();
-			int blockEnd = blockStart + vipsBlock.getBox().getContentHeight();
+			_deadline.checkpoint();
+
+			// block coordinates
+			int blockStart;
+			int blockEnd;
+
+			if (horizontal)
+			{
+				blockStart = vipsBlock.getBox().getAbsoluteContentY();
+				blockEnd = blockStart + vipsBlock.getBox().getContentHeight();
+			}
+			else
+			{
+				blockStart = vipsBlock.getBox().getAbsoluteContentX();
+				blockEnd = blockStart + vipsBlock.getBox().getContentWidth();
+			}
 
 			// for each separator that we have in pool
-			for (Separator separator : _horizontalSeparators)
+			for (int i = 0; i < separators.size(); i++)
 			{
+				int separatorStart = separators.getStart(i);
+				int separatorEnd = separators.getEnd(i);
+
 				// find separator, that intersects with our visual block
-				if (blockStart < separator.endPoint)
+				if (blockStart < separatorEnd)
 				{
 					// next there are six relations that the separator and visual block can have
 
 					// if separator is inside visual block
-					if (blockStart < separator.startPoint && blockEnd >= separator.endPoint)
+					if (blockStart < separatorStart && blockEnd >= separatorEnd)
 					{
-						List<Separator> tempSeparators = new ArrayList<Separator>();
-						tempSeparators.addAll(_horizontalSeparators);
-
 						//remove all separators, that are included in block
-						for (Separator other : tempSeparators)
+						for (int j = separators.size() - 1; j >= 0; j--)
 						{
-							if (blockStart < other.startPoint && blockEnd > other.endPoint)
-								_horizontalSeparators.remove(other);
+							if (blockStart < separators.getStart(j) && blockEnd > separators.getEnd(j))
+								separators.remove(j);
 						}
 
 						//find separator, that is on end of this block (if exists)
-						for (Separator other : _horizontalSeparators)
+						for (int j = 0; j < separators.size(); j++)
 						{
 							// and if it's necessary change it's start point
-							if (blockEnd > other.startPoint && blockEnd < other.endPoint)
+							if (blockEnd > separators.getStart(j) && blockEnd < separators.getEnd(j))
 							{
-								other.startPoint = blockEnd + 1;
+								separators.setStart(j, blockEnd + 1);
 								break;
 							}
 						}
 						break;
 					}
 					// if block is inside another block -> skip it
-					if (blockEnd < separator.startPoint)
+					if (blockEnd < separatorStart)
 						break;
 					// if separator starts in the middle of block
-					if (blockStart <= separator.startPoint && blockEnd >= separator.startPoint)
+					if ((horizontal ? blockStart <= separatorStart : blockStart < separatorStart) &&
+							blockEnd >= separatorStart)
 					{
 						// change separator start's point coordinate
-						separator.startPoint = blockEnd+1;
+						separators.setStart(i, blockEnd+1);
 						break;
 					}
 					// if block is inside the separator
-					if (blockStart >= separator.startPoint && blockEnd < separator.endPoint)
+					if (blockStart >= separatorStart &&
+							(horizontal ? blockEnd < separatorEnd : blockEnd <= separatorEnd))
 					{
-						if (blockStart == separator.startPoint)
+						if (blockStart == separatorStart)
 						{
-							separator.startPoint = blockEnd+1;
+							separators.setStart(i, blockEnd+1);
 							break;
 						}
-						if (blockEnd == separator.endPoint)
+						if (blockEnd == separatorEnd)
 						{
-							separator.endPoint = blockStart - 1;
+							separators.setEnd(i, blockStart - 1);
 							break;
 						}
 						// add new separator that starts behind the block
-						_horizontalSeparators.add(_horizontalSeparators.indexOf(separator) + 1, new Separator(blockEnd + 1, separator.endPoint));
+						separators.insert(i + 1, blockEnd + 1, separatorEnd);
 						// change end point coordinates of separator, that's before block
-						separator.endPoint = blockStart - 1;
+						separators.setEnd(i, blockStart - 1);
 						break;
 					}
 					// if in one block is one separator ending and another one starting
-					if (blockStart > separator.startPoint && blockStart < separator.endPoint)
+					if (blockStart > separatorStart && blockStart < separatorEnd)
 					{
-						// find the next one
-						int nextSeparatorIndex =_horizontalSeparators.indexOf(separator);
-
 						// if it's not the last separator
-						if (nextSeparatorIndex + 1 < _horizontalSeparators.size())
+						if (i + 1 < separators.size())
 						{
-							Separator nextSeparator = _horizontalSeparators.get(_horizontalSeparators.indexOf(separator) + 1);
+							int next = i + 1;
 
 							// next separator is really starting before the block ends
-							if (blockEnd > nextSeparator.startPoint && blockEnd < nextSeparator.endPoint)
+							if (blockEnd > separators.getStart(next) && blockEnd < separators.getEnd(next))
 							{
 								// change separator start point coordinate
-								separator.endPoint = blockStart - 1;
-								nextSeparator.startPoint = blockEnd + 1;
+								separators.setEnd(i, blockStart - 1);
+								separators.setStart(next, blockEnd + 1);
 								break;
 							}
 							else
 							{
-								List<Separator> tempSeparators = new ArrayList<Separator>();
-								tempSeparators.addAll(_horizontalSeparators);
-
 								//remove all separators, that are included in block
-								for (Separator other : tempSeparators)
+								int j = 0;
+								while (j < separators.size())
 								{
-									if (blockStart < other.startPoint && other.endPoint < blockEnd)
+									if (blockStart < separators.getStart(j) && separators.getEnd(j) < blockEnd)
 									{
-										_horizontalSeparators.remove(other);
+										separators.remove(j);
 										continue;
 									}
-									if (blockEnd > other.startPoint && blockEnd < other.endPoint)
+									if (blockEnd > separators.getStart(j) && blockEnd < separators.getEnd(j))
 									{
 										// change separator start's point coordinate
-										other.startPoint = blockEnd+1;
+										separators.setStart(j, blockEnd+1);
 										break;
 									}
-									if (blockStart > other.startPoint && blockStart < other.endPoint)
+									if (blockStart > separators.getStart(j) && blockStart < separators.getEnd(j))
 									{
-										other.endPoint = blockStart-1;
-										continue;
+										separators.setEnd(j, blockStart-1);
 									}
+									j++;
 								}
 								break;
 							}
@@ -358,7 +300,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 					}
 					// if separator ends in the middle of block
 					// change it's end point coordinate
-					separator.endPoint = blockStart-1;
+					separators.setEnd(i, blockStart-1);
 					break;
 				}
 			}
@@ -377,28 +319,20 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			return;
 		}
 
-		_horizontalSeparators.clear();
-		_horizontalSeparators.add(new Separator(0, _height));
+		_horizontalTable.clear();
+		_horizontalTable.add(0, _height);
 
 		findHorizontalSeparators();
 
 		//remove pool borders
-		List<Separator> tempSeparators = new ArrayList<Separator>();
-		tempSeparators.addAll(_horizontalSeparators);
-
-		for (Separator separator : tempSeparators)
-		{
-			if (separator.startPoint == 0)
-				_horizontalSeparators.remove(separator);
-			if (separator.endPoint == _height)
-				_horizontalSeparators.remove(separator);
-		}
+		removePoolBorders(_horizontalTable, _height);
 
 		if (_cleanSeparatorsTreshold != 0)
-			cleanUpSeparators(_horizontalSeparators);
+			cleanUpSeparators(_horizontalTable);
 
 		computeHorizontalWeights();
-		sortSeparatorsByWeight(_horizontalSeparators);
+		sortSeparatorsByWeight(_horizontalTable);
+		_horizontalTable.getSeparators(_horizontalSeparators);
 	}
 
 	/**
@@ -413,40 +347,43 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			return;
 		}
 
-		_verticalSeparators.clear();
-		_verticalSeparators.add(new Separator(0, _width));
+		_verticalTable.clear();
+		_verticalTable.add(0, _width);
 
 		findVerticalSeparators();
 
 		//remove pool borders
-		List<Separator> tempSeparators = new ArrayList<Separator>();
-		tempSeparators.addAll(_verticalSeparators);
-
-		for (Separator separator : tempSeparators)
-		{
-			if (separator.startPoint == 0)
-				_verticalSeparators.remove(separator);
-			if (separator.endPoint == _width)
-				_verticalSeparators.remove(separator);
-		}
+		removePoolBorders(_verticalTable, _width);
 
 		if (_cleanSeparatorsTreshold != 0)
-			cleanUpSeparators(_verticalSeparators);
+			cleanUpSeparators(_verticalTable);
 		computeVerticalWeights();
-		sortSeparatorsByWeight(_verticalSeparators);
+		sortSeparatorsByWeight(_verticalTable);
+		_verticalTable.getSeparators(_verticalSeparators);
 	}
 
-	private void cleanUpSeparators(List<Separator> separators)
+	/**
+	 * Removes separators, that are on pool borders.
+	 * @param separators Separators
+	 * @param poolEnd Pool's size in separators direction
+	 */
+	private void removePoolBorders(SeparatorTable separators, int poolEnd)
 	{
-		List<Separator> tempList = new ArrayList<Separator>();
-		tempList.addAll(separators);
+		for (int i = separators.size() - 1; i >= 0; i--)
+		{
+			if (separators.getStart(i) == 0 || separators.getEnd(i) == poolEnd)
+				separators.remove(i);
+		}
+	}
 
-		for (Separator separator : tempList)
+	private void cleanUpSeparators(SeparatorTable separators)
+	{
+		for (int i = separators.size() - 1; i >= 0; i--)
 		{
-			int width = separator.endPoint - separator.startPoint + 1;
+			int width = separators.getWidth(i);
 
 			if (width < _cleanSeparatorsTreshold)
-				separators.remove(separator);
+				separators.remove(i);
 		}
 	}
 
@@ -454,9 +391,9 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 * Sorts given separators by it's weight.
 	 * @param separators Separators
 	 */
-	private void sortSeparatorsByWeight(List<Separator> separators)
+	private void sortSeparatorsByWeight(SeparatorTable separators)
 	{
-		Collections.sort(separators);
+		separators.sortByWeight();
 	}
 
 	/**
@@ -464,11 +401,12 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 */
 	private void computeVerticalWeights()
 	{
-		for (Separator separator : _verticalSeparators)
+		for (int i = 0; i < _verticalTable.size(); i++)
 		{
-			ruleOne(separator);
-			ruleTwo(separator, false);
-			ruleThree(separator, false);
+			_deadline.checkpoint();
+			ruleOne(_verticalTable, i);
+			ruleTwo(_verticalTable, i, false);
+			ruleThree(_verticalTable, i, false);
 		}
 	}
 
@@ -477,13 +415,14 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 */
 	private void computeHorizontalWeights()
 	{
-		for (Separator separator : _horizontalSeparators)
+		for (int i = 0; i < _horizontalTable.size(); i++)
 		{
-			ruleOne(separator);
-			ruleTwo(separator, true);
-			ruleThree(separator,true);
-			ruleFour(separator);
-			ruleFive(separator);
+			_deadline.checkpoint();
+			ruleOne(_horizontalTable, i);
+			ruleTwo(_horizontalTable, i, true);
+			ruleThree(_horizontalTable, i, true);
+			ruleFour(_horizontalTable, i);
+			ruleFive(_horizontalTable, i);
 		}
 	}
 
@@ -491,52 +430,55 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 * The greater the distance between blocks on different
 	 * side of the separator, the higher the weight. <p>
 	 * For every 10 points of width we increase weight by 1 points.
-	 * @param separator Separator
+	 * @param separators Separators
+	 * @param index Separator's index
 	 */
-	private void ruleOne(Separator separator)
+	private void ruleOne(SeparatorTable separators, int index)
 	{
-		int width = separator.endPoint - separator.startPoint + 1;
+		int width = separators.getWidth(index);
 
 		//separator.weight += width;
 
 		if (width > 55 )
-			separator.weight += 12;
+			separators.addWeight(index, 12);
 		if (width > 45 && width <= 55)
-			separator.weight += 10;
+			separators.addWeight(index, 10);
 		if (width > 35 && width <= 45)
-			separator.weight += 8;
+			separators.addWeight(index, 8);
 		if (width > 25 && width <= 35)
-			separator.weight += 6;
+			separators.addWeight(index, 6);
 		else if (width > 15 && width <= 25)
-			separator.weight += 4;
+			separators.addWeight(index, 4);
 		else if (width > 8 && width <= 15)
-			separator.weight += 2;
+			separators.addWeight(index, 2);
 		else
-			separator.weight += 1;
+			separators.addWeight(index, 1);
 
 	}
 
 	/**
 	 * If a visual separator is overlapped with some certain HTML
 	 * tags (e.g., the &lt;HR&gt; HTML tag), its weight is set to be higher.
-	 * @param separator Separator
+	 * @param separators Separators
+	 * @param index Separator's index
 	 */
-	private void ruleTwo(Separator separator, boolean horizontal)
+	private void ruleTwo(SeparatorTable separators, int index, boolean horizontal)
 	{
-		List<VipsBlock> overlappedElements = new ArrayList<VipsBlock>();
+		List<VipsBlock> overlappedElements = _overlappedBlocks;
+		overlappedElements.clear();
 		if (horizontal)
-			findHorizontalOverlappedElements(separator, overlappedElements);
+			findHorizontalOverlappedElements(separators.getStart(index), separators.getEnd(index), overlappedElements);
 		else
-			findVerticalOverlappedElements(separator, overlappedElements);
+			findVerticalOverlappedElements(separators.getStart(index), separators.getEnd(index), overlappedElements);
 
 		if (overlappedElements.size() == 0)
 			return;
 
 		for (VipsBlock vipsBlock : overlappedElements)
 		{
-			if (vipsBlock.getBox().getNode().getNodeName().equals("hr"))
+			if (vipsBlock.getTag() == VipsTag.HR)
 			{
-				separator.weight += 2;
+				separators.addWeight(index, 2);
 				break;
 			}
 		}
@@ -544,10 +486,11 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 
 	/**
 	 * Finds elements that are overlapped with horizontal separator.
-	 * @param separator Separator, that we look at
+	 * @param separatorStart Start point of separator, that we look at
+	 * @param separatorEnd End point of separator, that we look at
 	 * @param result Elements, that we found
 	 */
-	private void findHorizontalOverlappedElements(Separator separator, List<VipsBlock> result)
+	private void findHorizontalOverlappedElements(int separatorStart, int separatorEnd, List<VipsBlock> result)
 	{
 		for (VipsBlock vipsBlock : _visualBlocks)
 		{
@@ -555,19 +498,19 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			int bottomEdge = topEdge + vipsBlock.getBox().getContentHeight();
 
 			// two upper edges of element are overlapped with separator
-			if (topEdge > separator.startPoint && topEdge < separator.endPoint && bottomEdge > separator.endPoint)
+			if (topEdge > separatorStart && topEdge < separatorEnd && bottomEdge > separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
 
 			// two bottom edges of element are overlapped with separator
-			if (topEdge < separator.startPoint && bottomEdge > separator.startPoint && bottomEdge < separator.endPoint)
+			if (topEdge < separatorStart && bottomEdge > separatorStart && bottomEdge < separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
 
 			// all edges of element are overlapped with separator
-			if (topEdge >= separator.startPoint && bottomEdge <= separator.endPoint)
+			if (topEdge >= separatorStart && bottomEdge <= separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
@@ -577,10 +520,11 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 
 	/**
 	 * Finds elements that are overlapped with vertical separator.
-	 * @param separator Separator, that we look at
+	 * @param separatorStart Start point of separator, that we look at
+	 * @param separatorEnd End point of separator, that we look at
 	 * @param result Elements, that we found
 	 */
-	private void findVerticalOverlappedElements(Separator separator, List<VipsBlock> result)
+	private void findVerticalOverlappedElements(int separatorStart, int separatorEnd, List<VipsBlock> result)
 	{
 		for (VipsBlock vipsBlock : _visualBlocks)
 		{
@@ -588,19 +532,19 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			int rightEdge = leftEdge + vipsBlock.getBox().getContentWidth();
 
 			// two left edges of element are overlapped with separator
-			if (leftEdge > separator.startPoint && leftEdge < separator.endPoint && rightEdge > separator.endPoint)
+			if (leftEdge > separatorStart && leftEdge < separatorEnd && rightEdge > separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
 
 			// two right edges of element are overlapped with separator
-			if (leftEdge < separator.startPoint && rightEdge > separator.startPoint && rightEdge < separator.endPoint)
+			if (leftEdge < separatorStart && rightEdge > separatorStart && rightEdge < separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
 
 			// all edges of element are overlapped with separator
-			if (leftEdge >= separator.startPoint && rightEdge <= separator.endPoint)
+			if (leftEdge >= separatorStart && rightEdge <= separatorEnd)
 			{
 				result.add(vipsBlock);
 			}
@@ -610,18 +554,21 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	/**
 	 * If background colors of the blocks on two sides of the separator
 	 * are different, the weight will be increased.
-	 * @param separator Separator
+	 * @param separators Separators
+	 * @param index Separator's index
 	 */
-	private void ruleThree(Separator separator, boolean horizontal)
+	private void ruleThree(SeparatorTable separators, int index, boolean horizontal)
 	{
 		// for vertical is represents elements on left side
-		List<VipsBlock> topAdjacentElements = new ArrayList<VipsBlock>();
+		List<VipsBlock> topAdjacentElements = _topAdjacentBlocks;
 		// for vertical is represents elements on right side
-		List<VipsBlock> bottomAdjacentElements = new ArrayList<VipsBlock>();
+		List<VipsBlock> bottomAdjacentElements = _bottomAdjacentBlocks;
+		topAdjacentElements.clear();
+		bottomAdjacentElements.clear();
 		if (horizontal)
-			findHorizontalAdjacentBlocks(separator, topAdjacentElements, bottomAdjacentElements);
+			findHorizontalAdjacentBlocks(separators.getStart(index), separators.getEnd(index), topAdjacentElements, bottomAdjacentElements);
 		else
-			findVerticalAdjacentBlocks(separator, topAdjacentElements, bottomAdjacentElements);
+			findVerticalAdjacentBlocks(separators.getStart(index), separators.getEnd(index), topAdjacentElements, bottomAdjacentElements);
 
 		if (topAdjacentElements.size() < 1 || bottomAdjacentElements.size() < 1)
 			return;
@@ -634,7 +581,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			{
 				if (!top.getBgColor().equals(bottom.getBgColor()))
 				{
-					separator.weight += 2;
+					separators.addWeight(index, 2);
 					weightIncreased = true;
 					break;
 				}
@@ -646,11 +593,12 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 
 	/**
 	 * Finds elements that are adjacent to horizontal separator.
-	 * @param separator Separator, that we look at
+	 * @param separatorStart Start point of separator, that we look at
+	 * @param separatorEnd End point of separator, that we look at
 	 * @param resultTop Elements, that we found on top side of separator
 	 * @param resultBottom Elements, that we found on bottom side side of separator
 	 */
-	private void findHorizontalAdjacentBlocks(Separator separator, List<VipsBlock> resultTop, List<VipsBlock> resultBottom)
+	private void findHorizontalAdjacentBlocks(int separatorStart, int separatorEnd, List<VipsBlock> resultTop, List<VipsBlock> resultBottom)
 	{
 		for (VipsBlock vipsBlock : _visualBlocks)
 		{
@@ -658,13 +606,13 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			int bottomEdge = topEdge + vipsBlock.getBox().getContentHeight();
 
 			// if box is adjancent to separator from bottom
-			if (topEdge == separator.endPoint + 1 && bottomEdge > separator.endPoint + 1)
+			if (topEdge == separatorEnd + 1 && bottomEdge > separatorEnd + 1)
 			{
 				resultBottom.add(vipsBlock);
 			}
 
 			// if box is adjancent to separator from top
-			if (bottomEdge == separator.startPoint - 1 && topEdge < separator.startPoint - 1)
+			if (bottomEdge == separatorStart - 1 && topEdge < separatorStart - 1)
 			{
 				resultTop.add(0, vipsBlock);
 			}
@@ -673,11 +621,12 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 
 	/**
 	 * Finds elements that are adjacent to vertical separator.
-	 * @param separator Separator, that we look at
+	 * @param separatorStart Start point of separator, that we look at
+	 * @param separatorEnd End point of separator, that we look at
 	 * @param resultLeft Elements, that we found on left side of separator
 	 * @param resultRight Elements, that we found on right side side of separator
 	 */
-	private void findVerticalAdjacentBlocks(Separator separator, List<VipsBlock> resultLeft, List<VipsBlock> resultRight)
+	private void findVerticalAdjacentBlocks(int separatorStart, int separatorEnd, List<VipsBlock> resultLeft, List<VipsBlock> resultRight)
 	{
 		for (VipsBlock vipsBlock : _visualBlocks)
 		{
@@ -685,13 +634,13 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			int rightEdge = leftEdge + vipsBlock.getBox().getContentWidth();
 
 			// if box is adjancent to separator from right
-			if (leftEdge == separator.endPoint + 1 && rightEdge > separator.endPoint + 1)
+			if (leftEdge == separatorEnd + 1 && rightEdge > separatorEnd + 1)
 			{
 				resultRight.add(vipsBlock);
 			}
 
 			// if box is adjancent to separator from left
-			if (rightEdge == separator.startPoint - 1 && leftEdge < separator.startPoint - 1)
+			if (rightEdge == separatorStart - 1 && leftEdge < separatorStart - 1)
 			{
 				resultLeft.add(0, vipsBlock);
 			}
@@ -705,14 +654,17 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 * Moreover, the weight will be increased if the font size of the block
 	 * above the separator is smaller than the font size of the block
 	 * below the separator.
-	 * @param separator Separator
+	 * @param separators Separators
+	 * @param index Separator's index
 	 */
-	private void ruleFour(Separator separator)
+	private void ruleFour(SeparatorTable separators, int index)
 	{
-		List<VipsBlock> topAdjacentElements = new ArrayList<VipsBlock>();
-		List<VipsBlock> bottomAdjacentElements = new ArrayList<VipsBlock>();
+		List<VipsBlock> topAdjacentElements = _topAdjacentBlocks;
+		List<VipsBlock> bottomAdjacentElements = _bottomAdjacentBlocks;
+		topAdjacentElements.clear();
+		bottomAdjacentElements.clear();
 
-		findHorizontalAdjacentBlocks(separator, topAdjacentElements, bottomAdjacentElements);
+		findHorizontalAdjacentBlocks(separators.getStart(index), separators.getEnd(index), topAdjacentElements, bottomAdjacentElements);
 
 		if (topAdjacentElements.size() < 1 || bottomAdjacentElements.size() < 1)
 			return;
@@ -726,7 +678,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 				int diff = Math.abs(top.getFontSize() - bottom.getFontSize());
 				if (diff != 0)
 				{
-					separator.weight += 2;
+					separators.addWeight(index, 2);
 					weightIncreased = true;
 					break;
 				}
@@ -734,7 +686,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 				{
 					if (!top.getFontWeight().equals(bottom.getFontWeight()))
 					{
-						separator.weight += 2;
+						separators.addWeight(index, 2);
 					}
 				}
 			}
@@ -750,7 +702,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 			{
 				if (top.getFontSize() < bottom.getFontSize())
 				{
-					separator.weight += 2;
+					separators.addWeight(index, 2);
 					weightIncreased = true;
 					break;
 				}
@@ -764,14 +716,17 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 	 * For horizontal separators, when the structures of the blocks on the two
 	 * sides of the separator are very similar (e.g. both are text),
 	 * the weight of the separator will be decreased.
-	 * @param separator Separator
+	 * @param separators Separators
+	 * @param index Separator's index
 	 */
-	private void ruleFive(Separator separator)
+	private void ruleFive(SeparatorTable separators, int index)
 	{
-		List<VipsBlock> topAdjacentElements = new ArrayList<VipsBlock>();
-		List<VipsBlock> bottomAdjacentElements = new ArrayList<VipsBlock>();
+		List<VipsBlock> topAdjacentElements = _topAdjacentBlocks;
+		List<VipsBlock> bottomAdjacentElements = _bottomAdjacentBlocks;
+		topAdjacentElements.clear();
+		bottomAdjacentElements.clear();
 
-		findHorizontalAdjacentBlocks(separator, topAdjacentElements, bottomAdjacentElements);
+		findHorizontalAdjacentBlocks(separators.getStart(index), separators.getEnd(index), topAdjacentElements, bottomAdjacentElements);
 
 		if (topAdjacentElements.size() < 1 || bottomAdjacentElements.size() < 1)
 			return;
@@ -785,7 +740,7 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 				if (top.getBox() instanceof TextBox &&
 						bottom.getBox() instanceof TextBox)
 				{
-					separator.weight -= 2;
+					separators.addWeight(index, -2);
 					weightDecreased = true;
 					break;
 				}
@@ -841,4 +796,14 @@ public class VipsSeparatorNonGraphicsDetector implements VipsSeparatorDetector {
 
 		return false;
 	}
+
+	/**
+	 * Sets deadline, that is checked during detection
+	 * @param deadline Deadline
+	 */
+	@Override
+	public void setDeadline(VipsDeadline deadline)
+	{
+		this._deadline = deadline;
+	}
 }
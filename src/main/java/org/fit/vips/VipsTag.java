@@ -0,0 +1,92 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsTag.java
+ */
+
+package org.fit.vips;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fit.cssbox.layout.Box;
+
+/**
+ * Kinds of elements, that are important for VIPS rules.
+ * <p>
+ * Node name is translated to tag only once, so rules can compare tags
+ * instead of strings.
+ * @author Tomas Popela
+ *
+ */
+public enum VipsTag {
+	OTHER(null),
+	TEXT("text"),
+	IMG("img"),
+	INPUT("input"),
+	TABLE("table"),
+	TR("tr"),
+	TD("td"),
+	P("p"),
+	A("a"),
+	UL("ul"),
+	LI("li"),
+	SPAN("span"),
+	SUP("sup"),
+	EM("em"),
+	HR("hr"),
+	DIV("div"),
+	CODE("code"),
+	// anonymous boxes created by CSSBox
+	XDIV("Xdiv"),
+	XSPAN("Xspan");
+
+	private static final Map<String, VipsTag> _tags = new HashMap<String, VipsTag>();
+
+	static
+	{
+		for (VipsTag tag : values())
+		{
+			if (tag._nodeName != null)
+				_tags.put(tag._nodeName, tag);
+		}
+	}
+
+	private final String _nodeName;
+
+	private VipsTag(String nodeName)
+	{
+		this._nodeName = nodeName;
+	}
+
+	/**
+	 * Gets node name of tag
+	 * @return Node name or null for OTHER
+	 */
+	public String getNodeName()
+	{
+		return _nodeName;
+	}
+
+	/**
+	 * Finds tag for given node name (names are case sensitive)
+	 * @param nodeName Node name
+	 * @return Tag or OTHER if node name is not known
+	 */
+	public static VipsTag forName(String nodeName)
+	{
+		VipsTag tag = _tags.get(nodeName);
+
+		return (tag != null) ? tag : OTHER;
+	}
+
+	/**
+	 * Finds tag of given box
+	 * @param box Box
+	 * @return Tag
+	 */
+	public static VipsTag of(Box box)
+	{
+		return forName(box.getNode().getNodeName());
+	}
+}
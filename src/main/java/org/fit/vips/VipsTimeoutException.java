@@ -0,0 +1,25 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VipsTimeoutException.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Thrown from checkpoints of segmentation, when page's deadline expires.
+ * @author Tomas Popela
+ *
+ */
+public class VipsTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param timeLimit Time limit of page in milliseconds
+	 */
+	public VipsTimeoutException(long timeLimit)
+	{
+		super("Segmentation of page exceeded time limit of " + timeLimit + " ms");
+	}
+}
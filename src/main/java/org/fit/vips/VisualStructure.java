@@ -6,10 +6,14 @@
 
 package org.fit.vips;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 
-import org.w3c.dom.Node;
+import org.fit.cssbox.layout.Box;
 
 /**
  * Class that represents visual structure.
@@ -18,8 +22,16 @@ import org.w3c.dom.Node;
  */
 public class VisualStructure {
 
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
 	private List<VipsBlock> _nestedBlocks = null;
+	private final List<VipsBlock> _nestedBlocksView = new NestedBlocksList();
 	private List<VisualStructure> _childrenVisualStructures = null;
+	private VisualStructure _parent = null;
+	// depth in structure tree (root has depth 0)
+	private int _depth = 0;
+	private int _nodeId = 0;
 	private List<Separator> _horizontalSeparators = null;
 	private List<Separator> _verticalSeparators = null;
 	private int _width = 0;
@@ -27,16 +39,24 @@ public class VisualStructure {
 	private int _x = 0;
 	private int _y = 0;
 	private int _doC = 12;
-	private int _containImg = -1;
-	private int _containP = -1;
-	private int _textLength = -1;
-	private int _linkTextLength = -1;
+	// aggregates of nested blocks, maintained when nested blocks change
+	private int _containImg = 0;
+	private int _containP = 0;
+	private int _textLength = 0;
+	private int _linkTextLength = 0;
+	private int _tableBlocks = 0;
+	// source indexes of nested blocks, null when nested blocks changed
+	private String _blocksSourceIndex = null;
 	private int _order;
-	private boolean _containTable = false;
-	private String _id = null;
-	private int _tmpSrcIndex = 0;
-	private int _srcIndex = 0;
-	private int _minimalDoC = 0;
+
+	// fingerprints and exact states (null when not set), for which
+	// processing of structure found no changes
+	private long _noHorizontalSeparators = 0;
+	private int[] _noHorizontalSeparatorsState = null;
+	private long _noVerticalSeparators = 0;
+	private int[] _noVerticalSeparatorsState = null;
+	private long _separatorsUpToDate = 0;
+	private int[] _separatorsUpToDateState = null;
 
 	public VisualStructure()
 	{
@@ -47,11 +67,70 @@ public class VisualStructure {
 	}
 
 	/**
-	 * @return Nested blocks in structure
+	 * Creates visual structure with given node id
+	 * @param nodeId Node id
+	 */
+	public VisualStructure(int nodeId)
+	{
+		this();
+		this._nodeId = nodeId;
+	}
+
+	/**
+	 * View of nested blocks, that keeps aggregates up to date, when it's
+	 * modified
+	 */
+	private class NestedBlocksList extends AbstractList<VipsBlock>
+	{
+		@Override
+		public VipsBlock get(int index)
+		{
+			return _nestedBlocks.get(index);
+		}
+
+		@Override
+		public int size()
+		{
+			return _nestedBlocks.size();
+		}
+
+		@Override
+		public VipsBlock set(int index, VipsBlock block)
+		{
+			VipsBlock oldBlock = _nestedBlocks.set(index, block);
+
+			updateAggregates(oldBlock, -1);
+			updateAggregates(block, 1);
+
+			return oldBlock;
+		}
+
+		@Override
+		public void add(int index, VipsBlock block)
+		{
+			_nestedBlocks.add(index, block);
+			updateAggregates(block, 1);
+			modCount++;
+		}
+
+		@Override
+		public VipsBlock remove(int index)
+		{
+			VipsBlock oldBlock = _nestedBlocks.remove(index);
+
+			updateAggregates(oldBlock, -1);
+			modCount++;
+
+			return oldBlock;
+		}
+	}
+
+	/**
+	 * @return Nested blocks in structure (changes of list update aggregates)
 	 */
 	public List<VipsBlock> getNestedBlocks()
 	{
-		return _nestedBlocks;
+		return _nestedBlocksView;
 	}
 
 	/**
@@ -61,6 +140,7 @@ public class VisualStructure {
 	public void addNestedBlock(VipsBlock nestedBlock)
 	{
 		this._nestedBlocks.add(nestedBlock);
+		updateAggregates(nestedBlock, 1);
 	}
 
 	/**
@@ -69,16 +149,25 @@ public class VisualStructure {
 	 */
 	public void addNestedBlocks(List<VipsBlock> nestedBlocks)
 	{
-		this._nestedBlocks.addAll(nestedBlocks);
+		// list can be view of this structure's blocks
+		if (nestedBlocks == _nestedBlocksView)
+			nestedBlocks = new ArrayList<VipsBlock>(nestedBlocks);
+
+		for (VipsBlock nestedBlock : nestedBlocks)
+			addNestedBlock(nestedBlock);
 	}
 
 	/**
-	 * Sets blocks as nested blocks
+	 * Sets blocks as nested blocks (blocks are copied)
 	 * @param vipsBlocks
 	 */
 	public void setNestedBlocks(List<VipsBlock> vipsBlocks)
 	{
-		this._nestedBlocks = vipsBlocks;
+		if (vipsBlocks == _nestedBlocksView)
+			return;
+
+		clearNestedBlocks();
+		addNestedBlocks(vipsBlocks);
 	}
 
 	/**
@@ -87,6 +176,12 @@ public class VisualStructure {
 	public void clearNestedBlocks()
 	{
 		this._nestedBlocks.clear();
+		_containImg = 0;
+		_containP = 0;
+		_textLength = 0;
+		_linkTextLength = 0;
+		_tableBlocks = 0;
+		_blocksSourceIndex = null;
 	}
 
 	/**
@@ -95,7 +190,174 @@ public class VisualStructure {
 	 */
 	public void removeNestedBlockAt(int index)
 	{
-		this._nestedBlocks.remove(index);
+		updateAggregates(this._nestedBlocks.remove(index), -1);
+	}
+
+	/**
+	 * Adds (or subtracts) properties of block to aggregates of structure
+	 * @param block Block
+	 * @param sign 1 for added block, -1 for removed block
+	 */
+	private void updateAggregates(VipsBlock block, int sign)
+	{
+		_containImg += sign * block.containImg();
+		_containP += sign * block.containP();
+		_textLength += sign * block.getTextLength();
+		_linkTextLength += sign * block.getLinkTextLength();
+
+		if (block.containTable())
+			_tableBlocks += sign;
+
+		_blocksSourceIndex = null;
+	}
+
+	/**
+	 * Computes fingerprint of exact state
+	 * @param state State
+	 * @return Fingerprint
+	 */
+	private static long getFingerprint(int[] state)
+	{
+		long fingerprint = FNV_OFFSET;
+
+		for (int value : state)
+			fingerprint = (fingerprint ^ value) * FNV_PRIME;
+
+		return (fingerprint ^ state.length) * FNV_PRIME;
+	}
+
+	/**
+	 * Gets exact state of nested blocks (ids of blocks in their order)
+	 * @return State
+	 */
+	private int[] getNestedBlocksState()
+	{
+		int[] state = new int[_nestedBlocks.size()];
+
+		for (int i = 0; i < state.length; i++)
+			state[i] = _nestedBlocks.get(i).getId();
+
+		return state;
+	}
+
+	/**
+	 * Gets exact state of nested blocks and horizontal separators (their
+	 * geometry and weight)
+	 * @return State
+	 */
+	private int[] getHorizontalSeparatorsState()
+	{
+		int blocks = _nestedBlocks.size();
+		int[] state = new int[1 + blocks + 8 * _horizontalSeparators.size()];
+		int index = 0;
+
+		state[index++] = blocks;
+
+		for (VipsBlock block : _nestedBlocks)
+			state[index++] = block.getId();
+
+		for (Separator separator : _horizontalSeparators)
+		{
+			state[index++] = separator.startPoint;
+			state[index++] = separator.endPoint;
+			state[index++] = separator.weight;
+			state[index++] = separator.hasRectangle() ? 1 : 0;
+			state[index++] = separator.getLeftUpX();
+			state[index++] = separator.getLeftUpY();
+			state[index++] = separator.getRightDownX();
+			state[index++] = separator.getRightDownY();
+		}
+
+		return state;
+	}
+
+	/**
+	 * Computes fingerprint of nested blocks (ids of blocks in their order)
+	 * @return Fingerprint
+	 */
+	public long getNestedBlocksFingerprint()
+	{
+		return getFingerprint(getNestedBlocksState());
+	}
+
+	/**
+	 * Computes fingerprint of nested blocks and horizontal separators
+	 * (their geometry and weight)
+	 * @return Fingerprint
+	 */
+	public long getHorizontalSeparatorsFingerprint()
+	{
+		return getFingerprint(getHorizontalSeparatorsState());
+	}
+
+	/**
+	 * Remembers, that horizontal separators detection found no separators
+	 * in nested blocks with given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks
+	 */
+	public void setNoHorizontalSeparators(long fingerprint)
+	{
+		this._noHorizontalSeparators = fingerprint;
+		this._noHorizontalSeparatorsState = getNestedBlocksState();
+	}
+
+	/**
+	 * Checks if horizontal separators detection already found no separators
+	 * in nested blocks with given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks
+	 * @return True if detection can be skipped, otherwise false
+	 */
+	public boolean hasNoHorizontalSeparators(long fingerprint)
+	{
+		// equal fingerprints are confirmed by comparison of exact states
+		return _noHorizontalSeparatorsState != null && _noHorizontalSeparators == fingerprint &&
+				Arrays.equals(_noHorizontalSeparatorsState, getNestedBlocksState());
+	}
+
+	/**
+	 * Remembers, that vertical separators detection found no separators
+	 * in nested blocks with given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks
+	 */
+	public void setNoVerticalSeparators(long fingerprint)
+	{
+		this._noVerticalSeparators = fingerprint;
+		this._noVerticalSeparatorsState = getNestedBlocksState();
+	}
+
+	/**
+	 * Checks if vertical separators detection already found no separators
+	 * in nested blocks with given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks
+	 * @return True if detection can be skipped, otherwise false
+	 */
+	public boolean hasNoVerticalSeparators(long fingerprint)
+	{
+		return _noVerticalSeparatorsState != null && _noVerticalSeparators == fingerprint &&
+				Arrays.equals(_noVerticalSeparatorsState, getNestedBlocksState());
+	}
+
+	/**
+	 * Remembers, that updating of separators didn't change separators with
+	 * given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks and horizontal separators
+	 */
+	public void setSeparatorsUpToDate(long fingerprint)
+	{
+		this._separatorsUpToDate = fingerprint;
+		this._separatorsUpToDateState = getHorizontalSeparatorsState();
+	}
+
+	/**
+	 * Checks if updating of separators already didn't change separators with
+	 * given fingerprint
+	 * @param fingerprint Fingerprint of nested blocks and horizontal separators
+	 * @return True if update can be skipped, otherwise false
+	 */
+	public boolean areSeparatorsUpToDate(long fingerprint)
+	{
+		return _separatorsUpToDateState != null && _separatorsUpToDate == fingerprint &&
+				Arrays.equals(_separatorsUpToDateState, getHorizontalSeparatorsState());
 	}
 
 	/**
@@ -104,7 +366,8 @@ public class VisualStructure {
 	 */
 	public void removeChild(VisualStructure visualStructure)
 	{
-		this._childrenVisualStructures.remove(visualStructure);
+		if (this._childrenVisualStructures.remove(visualStructure))
+			visualStructure.setParent(null);
 	}
 
 	/**
@@ -114,6 +377,7 @@ public class VisualStructure {
 	public void addChild(VisualStructure visualStructure)
 	{
 		this._childrenVisualStructures.add(visualStructure);
+		visualStructure.setParent(this);
 	}
 
 	/**
@@ -124,6 +388,7 @@ public class VisualStructure {
 	public void addChildAt(VisualStructure visualStructure, int index)
 	{
 		this._childrenVisualStructures.add(index, visualStructure);
+		visualStructure.setParent(this);
 	}
 
 	/**
@@ -142,6 +407,118 @@ public class VisualStructure {
 	public void setChildrenVisualStructures(List<VisualStructure> childrenVisualStructures)
 	{
 		this._childrenVisualStructures = childrenVisualStructures;
+
+		for (VisualStructure child : childrenVisualStructures)
+			child.setParent(this);
+	}
+
+	/**
+	 * Sets parent of structure and updates depth of structure and its
+	 * descendants
+	 * @param parent Parent structure
+	 */
+	private void setParent(VisualStructure parent)
+	{
+		this._parent = parent;
+
+		Deque<VisualStructure> stack = new ArrayDeque<VisualStructure>();
+		stack.push(this);
+
+		while (!stack.isEmpty())
+		{
+			VisualStructure actualStructure = stack.pop();
+
+			actualStructure._depth = (actualStructure._parent == null) ? 0 : actualStructure._parent._depth + 1;
+
+			for (VisualStructure child : actualStructure._childrenVisualStructures)
+				stack.push(child);
+		}
+	}
+
+	/**
+	 * Creates copy of structure and all its descendants. Nested blocks and
+	 * separators are shared with the original structures.
+	 * @return Copy of structure
+	 */
+	public VisualStructure copy()
+	{
+		VisualStructure result = copyStructure();
+		Deque<VisualStructure> originals = new ArrayDeque<VisualStructure>();
+		Deque<VisualStructure> copies = new ArrayDeque<VisualStructure>();
+
+		originals.push(this);
+		copies.push(result);
+
+		while (!originals.isEmpty())
+		{
+			VisualStructure original = originals.pop();
+			VisualStructure copy = copies.pop();
+
+			for (VisualStructure child : original._childrenVisualStructures)
+			{
+				VisualStructure childCopy = child.copyStructure();
+
+				copy.addChild(childCopy);
+				originals.push(child);
+				copies.push(childCopy);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Creates copy of structure without children
+	 * @return Copy of structure
+	 */
+	private VisualStructure copyStructure()
+	{
+		VisualStructure copy = new VisualStructure(_nodeId);
+
+		copy.addNestedBlocks(_nestedBlocks);
+		copy._horizontalSeparators.addAll(_horizontalSeparators);
+		copy._verticalSeparators.addAll(_verticalSeparators);
+		copy._width = _width;
+		copy._height = _height;
+		copy._x = _x;
+		copy._y = _y;
+		copy._doC = _doC;
+		copy._order = _order;
+		copy._noHorizontalSeparators = _noHorizontalSeparators;
+		copy._noHorizontalSeparatorsState = _noHorizontalSeparatorsState;
+		copy._noVerticalSeparators = _noVerticalSeparators;
+		copy._noVerticalSeparatorsState = _noVerticalSeparatorsState;
+		copy._separatorsUpToDate = _separatorsUpToDate;
+		copy._separatorsUpToDateState = _separatorsUpToDateState;
+
+		return copy;
+	}
+
+	/**
+	 * Returns parent structure
+	 * @return Parent structure or null for root of structure
+	 */
+	public VisualStructure getParent()
+	{
+		return _parent;
+	}
+
+	/**
+	 * Returns depth of structure in structure tree
+	 * @return Depth (root has depth 0)
+	 */
+	public int getDepth()
+	{
+		return _depth;
+	}
+
+	/**
+	 * Returns node id of structure
+	 * @return Node id
+	 */
+	public int getNodeId()
+	{
+		return _nodeId;
 	}
 
 	/**
@@ -282,21 +659,29 @@ public class VisualStructure {
 	}
 
 	/**
-	 * Sets if of visual structure
-	 * @param id Id
-	 */
-	public void setId(String id)
-	{
-		this._id = id;
-	}
-
-	/**
-	 * Returns id of visual structure
+	 * Returns id of visual structure (path from root, e.g. 1-2-3). Id is
+	 * rendered from positions of structure and its predecessors between
+	 * their siblings, so it costs one search in siblings for every level.
+	 * Output builds ids of all structures during its walk instead.
 	 * @return Visual structure's id
 	 */
 	public String getId()
 	{
-		return this._id;
+		int[] positions = new int[_depth];
+		VisualStructure actualStructure = this;
+
+		for (int i = _depth - 1; i >= 0; i--)
+		{
+			positions[i] = actualStructure._parent._childrenVisualStructures.indexOf(actualStructure) + 1;
+			actualStructure = actualStructure._parent;
+		}
+
+		StringBuilder id = new StringBuilder("1");
+
+		for (int position : positions)
+			id.append('-').append(position);
+
+		return id.toString();
 	}
 
 	/**
@@ -318,25 +703,8 @@ public class VisualStructure {
 	}
 
 	/**
-	 * Finds minimal DoC in all children visual structures
-	 * @param visualStructure Given visual structure
-	 */
-	private void findMinimalDoC(VisualStructure visualStructure)
-	{
-		if (!visualStructure.getId().equals("1"))
-		{
-			if (visualStructure.getDoC() < _minimalDoC)
-				_minimalDoC = visualStructure.getDoC();
-		}
-
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-		{
-			findMinimalDoC(child);
-		}
-	}
-
-	/**
-	 * Updates DoC to normalized DoC
+	 * Updates DoC to normalized DoC. DoC of children structures has to be
+	 * already updated.
 	 */
 	public void updateToNormalizedDoC()
 	{
@@ -363,12 +731,12 @@ public class VisualStructure {
 			}
 		}
 
-		_minimalDoC = 12;
-
-		findMinimalDoC(this);
-
-		if (_minimalDoC < _doC)
-			_doC = _minimalDoC;
+		// DoC of children is already the minimum of their descendants
+		for (VisualStructure child : _childrenVisualStructures)
+		{
+			if (child.getDoC() < _doC)
+				_doC = child.getDoC();
+		}
 	}
 
 	/**
@@ -377,16 +745,6 @@ public class VisualStructure {
 	 */
 	public int containImg()
 	{
-		if (_containImg != -1)
-			return _containImg;
-
-		_containImg = 0;
-
-		for (VipsBlock vipsBlock : _nestedBlocks)
-		{
-			_containImg += vipsBlock.containImg();
-		}
-
 		return _containImg;
 	}
 
@@ -396,16 +754,6 @@ public class VisualStructure {
 	 */
 	public int containP()
 	{
-		if (_containP != -1)
-			return _containP;
-
-		_containP = 0;
-
-		for (VipsBlock vipsBlock : _nestedBlocks)
-		{
-			_containP += vipsBlock.containP();
-		}
-
 		return _containP;
 	}
 
@@ -415,19 +763,7 @@ public class VisualStructure {
 	 */
 	public boolean containTable()
 	{
-		if (_containTable)
-			return _containTable;
-
-		for (VipsBlock vipsBlock : _nestedBlocks)
-		{
-			if (vipsBlock.containTable())
-			{
-				_containTable = true;
-				break;
-			}
-		}
-
-		return _containTable;
+		return _tableBlocks > 0;
 	}
 
 	/**
@@ -448,15 +784,6 @@ public class VisualStructure {
 	 */
 	public int getTextLength()
 	{
-		if (_textLength != -1)
-			return _textLength;
-
-		_textLength = 0;
-		for (VipsBlock vipsBlock : _nestedBlocks)
-		{
-			_textLength += vipsBlock.getTextLength();
-		}
-
 		return _textLength;
 	}
 
@@ -466,15 +793,6 @@ public class VisualStructure {
 	 */
 	public int getLinkTextLength()
 	{
-		if (_linkTextLength != -1)
-			return _linkTextLength;
-
-		_linkTextLength = 0;
-		for (VipsBlock vipsBlock : _nestedBlocks)
-		{
-			_linkTextLength += vipsBlock.getLinkTextLength();
-		}
-
 		return _linkTextLength;
 	}
 
@@ -527,47 +845,54 @@ public class VisualStructure {
 	}
 
 	/**
-	 * Sets source index of visual structure
-	 * @param node Node
-	 * @param nodeToFind Node to find
+	 * Gets source index of visual strucure
+	 * @return Visual structure's source index
 	 */
-	private void setSourceIndex(Node node, Node nodeToFind)
+	public String getSourceIndex()
 	{
-		if (!nodeToFind.equals(node))
-			_tmpSrcIndex++;
-		else
-			_srcIndex = _tmpSrcIndex;
-
-		for (int i = 0; i < node.getChildNodes().getLength(); i++)
-		{
-			setSourceIndex(node.getChildNodes().item(i), nodeToFind);
-		}
+		return getSourceIndex(null);
 	}
 
 	/**
 	 * Gets source index of visual strucure
+	 * @param sourceIndex Source indexes of page's nodes (if null, indexes
+	 * kept in blocks' tree are used)
 	 * @return Visual structure's source index
 	 */
-	public String getSourceIndex()
+	public String getSourceIndex(DomSourceIndex sourceIndex)
 	{
-		String sourceIndex = "";
+		String result = "";
 
 		if (_childrenVisualStructures.size() > 0)
 		{
-			setSourceIndex(_nestedBlocks.get(0).getBox().getNode().getOwnerDocument(), _nestedBlocks.get(0).getBox().getParent().getNode());
-			sourceIndex = String.valueOf(_srcIndex);
+			Box box = _nestedBlocks.get(0).getBox();
+
+			if (sourceIndex == null)
+				sourceIndex = _nestedBlocks.get(0).getTree().getSourceIndex(box.getNode().getOwnerDocument());
+
+			// generated nodes (Xdiv, Xspan) are not in document
+			result = String.valueOf(Math.max(sourceIndex.getIndex(box.getParent().getNode()), 0));
 		}
 		else
 		{
-			for (VipsBlock block : _nestedBlocks)
+			if (_blocksSourceIndex == null)
 			{
-				if (!sourceIndex.equals(""))
-					sourceIndex += ";";
+				StringBuilder blocksSourceIndex = new StringBuilder();
 
-				sourceIndex += block.getSourceIndex();
+				for (VipsBlock block : _nestedBlocks)
+				{
+					if (blocksSourceIndex.length() > 0)
+						blocksSourceIndex.append(';');
+
+					blocksSourceIndex.append(block.getSourceIndex());
+				}
+
+				_blocksSourceIndex = blocksSourceIndex.toString();
 			}
+
+			result = _blocksSourceIndex;
 		}
-		return sourceIndex;
+		return result;
 	}
 
 	/**
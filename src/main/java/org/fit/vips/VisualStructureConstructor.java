@@ -6,10 +6,21 @@
 
 package org.fit.vips;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fit.cssbox.layout.Box;
 
 /**
  * Class that constructs final visual structure of page.
@@ -23,26 +34,39 @@ public class VisualStructureConstructor {
 	private VisualStructure _visualStructure = null;
 	private List<Separator> _horizontalSeparators = null;
 	private List<Separator> _verticalSeparators = null;
+	private SeparatorRegistry _separatorRegistry = null;
+	// cache of separators detection results between adjacent blocks
+	private Map<DetectionKey, SeparatorTable> _detectionCache = null;
 	private int _pageWidth = 0;
 	private int _pageHeight = 0;
 	private int _srcOrder = 1;
+	// node id of next created visual structure
+	private int _nextNodeId = 1;
 	private int _iteration = 0;
 	private int _pDoC = 5;
 	private static int _maxDoC = 11;
 	private int _minDoC = 11;
 
 	private boolean _graphicsOutput = true;
+	private VipsDeadline _deadline = VipsDeadline.NONE;
+	// visual structure and DoC of blocks after the last completed iteration
+	private VisualStructure _snapshot = null;
+	private int[] _snapshotDoCs = null;
 
 	public VisualStructureConstructor()
 	{
 		this._horizontalSeparators = new ArrayList<Separator>();
 		this._verticalSeparators = new ArrayList<Separator>();
+		this._separatorRegistry = new SeparatorRegistry();
+		this._detectionCache = new HashMap<DetectionKey, SeparatorTable>();
 	}
 
 	public VisualStructureConstructor(int pDoC)
 	{
 		this._horizontalSeparators = new ArrayList<Separator>();
 		this._verticalSeparators = new ArrayList<Separator>();
+		this._separatorRegistry = new SeparatorRegistry();
+		this._detectionCache = new HashMap<DetectionKey, SeparatorTable>();
 		setPDoC(pDoC);
 	}
 
@@ -50,6 +74,8 @@ public class VisualStructureConstructor {
 	{
 		this._horizontalSeparators = new ArrayList<Separator>();
 		this._verticalSeparators = new ArrayList<Separator>();
+		this._separatorRegistry = new SeparatorRegistry();
+		this._detectionCache = new HashMap<DetectionKey, SeparatorTable>();
 		this._vipsBlocks = vipsBlocks;
 	}
 
@@ -57,6 +83,8 @@ public class VisualStructureConstructor {
 	{
 		this._horizontalSeparators = new ArrayList<Separator>();
 		this._verticalSeparators = new ArrayList<Separator>();
+		this._separatorRegistry = new SeparatorRegistry();
+		this._detectionCache = new HashMap<DetectionKey, SeparatorTable>();
 		this._vipsBlocks = vipsBlocks;
 		setPDoC(pDoC);
 	}
@@ -109,17 +137,144 @@ public class VisualStructureConstructor {
 			constructVerticalVisualStructure();
 		}
 
-		if (_iteration != 1)
-			updateSeparators();
+		SeparatorsCollector separatorsCollector = new SeparatorsCollector();
 
-		//sets order to visual structure
+		// separators are updated, collected and order is set in single walk
 		_srcOrder = 1;
-		setOrder(_visualStructure);
+
+		if (_iteration != 1)
+			VisualStructureWalker.walk(_visualStructure, new SeparatorsUpdater(), separatorsCollector, new OrderSetter());
+		else
+			VisualStructureWalker.walk(_visualStructure, separatorsCollector, new OrderSetter());
+
+		// forget separators, that were replaced
+		pruneSeparatorRegistry(separatorsCollector);
 
 		// if graphics output is enabled
 		if (_graphicsOutput)
 		{
-			exportSeparators();
+			exportSeparators(separatorsCollector);
+		}
+
+		// iteration is completed, remember its result in case that next
+		// iteration won't finish in time
+		if (_deadline.isLimited())
+			saveSnapshot();
+	}
+
+	/**
+	 * Sets deadline of page, that is checked during construction
+	 * @param deadline Deadline
+	 */
+	public void setDeadline(VipsDeadline deadline)
+	{
+		this._deadline = deadline;
+	}
+
+	/**
+	 * Saves copy of visual structure and DoC of all blocks
+	 */
+	private void saveSnapshot()
+	{
+		VipsBlockTree blockTree = _vipsBlocks.getTree();
+
+		_snapshot = _visualStructure.copy();
+
+		if (_snapshotDoCs == null || _snapshotDoCs.length != blockTree.size())
+			_snapshotDoCs = new int[blockTree.size()];
+
+		for (int i = 0; i < blockTree.size(); i++)
+			_snapshotDoCs[i] = blockTree.getBlock(i).getDoC();
+	}
+
+	/**
+	 * Restores visual structure from the last completed iteration. It's used,
+	 * when iteration was interrupted by deadline.
+	 * @return True if structure was restored, false if no iteration was completed
+	 */
+	public boolean restoreSnapshot()
+	{
+		if (_snapshot == null)
+			return false;
+
+		VipsBlockTree blockTree = _vipsBlocks.getTree();
+
+		_visualStructure = _snapshot;
+		_snapshot = null;
+
+		for (int i = 0; i < _snapshotDoCs.length; i++)
+			blockTree.getBlock(i).setDoC(_snapshotDoCs[i]);
+
+		// interrupted iteration could register new separators
+		SeparatorsCollector separatorsCollector = new SeparatorsCollector();
+		VisualStructureWalker.walk(_visualStructure, separatorsCollector);
+
+		_separatorRegistry.clear();
+		for (Separator separator : separatorsCollector.horizontalSeparators)
+			_separatorRegistry.intern(separator);
+		for (Separator separator : separatorsCollector.verticalSeparators)
+			_separatorRegistry.intern(separator);
+
+		return true;
+	}
+
+	/**
+	 * Sets visual structure with just one structure, that contains whole
+	 * page. It's used, when no iteration was completed before deadline.
+	 * @param vipsBlocks Root of VIPS blocks tree
+	 * @param width Page's width
+	 * @param height Page's height
+	 */
+	public void setPageStructure(VipsBlock vipsBlocks, int width, int height)
+	{
+		_visualStructure = createVisualStructure();
+		_visualStructure.addNestedBlock(vipsBlocks);
+		_visualStructure.setWidth(width);
+		_visualStructure.setHeight(height);
+
+		_separatorRegistry.clear();
+	}
+
+	/**
+	 * Collects distinct horizontal and vertical separators of visited
+	 * structures (in order of their first occurrence)
+	 */
+	private static class SeparatorsCollector extends VisualStructureVisitor
+	{
+		private final Set<Separator> horizontalSeparators = new LinkedHashSet<Separator>();
+		private final Set<Separator> verticalSeparators = new LinkedHashSet<Separator>();
+
+		@Override
+		public void enter(VisualStructure structure)
+		{
+			horizontalSeparators.addAll(structure.getHorizontalSeparators());
+			verticalSeparators.addAll(structure.getVerticalSeparators());
+		}
+	}
+
+	/**
+	 * Sets order to visited structures
+	 */
+	private class OrderSetter extends VisualStructureVisitor
+	{
+		@Override
+		public void enter(VisualStructure structure)
+		{
+			structure.setOrder(_srcOrder);
+			_srcOrder++;
+		}
+	}
+
+	/**
+	 * Updates separators of visited structures
+	 */
+	private class SeparatorsUpdater extends VisualStructureVisitor
+	{
+		@Override
+		public void enter(VisualStructure structure)
+		{
+			_deadline.checkpoint();
+			updateSeparators(structure);
 		}
 	}
 
@@ -131,22 +286,16 @@ public class VisualStructureConstructor {
 		// first run
 		if (_visualStructure == null)
 		{
-			VipsSeparatorDetector detector = null;
-
-			if (_graphicsOutput)
-				detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-			else
-				detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
+			VipsSeparatorDetector detector = getSeparatorDetector();
 
 			detector.setCleanUpSeparators(3);
 			detector.setVipsBlock(_vipsBlocks);
 			detector.setVisualBlocks(_visualBlocks);
 			detector.detectHorizontalSeparators();
-			this._horizontalSeparators = detector.getHorizontalSeparators();
+			copySeparators(detector.getHorizontalSeparators(), _horizontalSeparators);
 			Collections.sort(_horizontalSeparators);
 
-			_visualStructure = new VisualStructure();
-			_visualStructure.setId("1");
+			_visualStructure = createVisualStructure();
 			_visualStructure.setNestedBlocks(_visualBlocks);
 			_visualStructure.setWidth(_pageWidth);
 			_visualStructure.setHeight(_pageHeight);
@@ -166,19 +315,25 @@ public class VisualStructureConstructor {
 
 			for (VisualStructure childVisualStructure : listStructures)
 			{
-				VipsSeparatorDetector detector = null;
+				_deadline.checkpoint();
 
-				if (_graphicsOutput)
-					detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-				else
-					detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
+				long fingerprint = childVisualStructure.getNestedBlocksFingerprint();
+
+				// blocks didn't change since detection, that found nothing
+				if (childVisualStructure.hasNoHorizontalSeparators(fingerprint))
+					continue;
+
+				VipsSeparatorDetector detector = getSeparatorDetector();
 
 				detector.setCleanUpSeparators(4);
 
 				detector.setVipsBlock(_vipsBlocks);
 				detector.setVisualBlocks(childVisualStructure.getNestedBlocks());
 				detector.detectHorizontalSeparators();
-				this._horizontalSeparators = detector.getHorizontalSeparators();
+				copySeparators(detector.getHorizontalSeparators(), _horizontalSeparators);
+
+				if (_horizontalSeparators.isEmpty())
+					childVisualStructure.setNoHorizontalSeparators(fingerprint);
 
 				for (Separator separator : _horizontalSeparators)
 				{
@@ -199,22 +354,16 @@ public class VisualStructureConstructor {
 		// first run
 		if (_visualStructure == null)
 		{
-			VipsSeparatorDetector detector = null;
-
-			if (_graphicsOutput)
-				detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-			else
-				detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
+			VipsSeparatorDetector detector = getSeparatorDetector();
 
 			detector.setCleanUpSeparators(3);
 			detector.setVipsBlock(_vipsBlocks);
 			detector.setVisualBlocks(_visualBlocks);
 			detector.detectVerticalSeparators();
-			this._verticalSeparators = detector.getVerticalSeparators();
+			copySeparators(detector.getVerticalSeparators(), _verticalSeparators);
 			Collections.sort(_verticalSeparators);
 
-			_visualStructure = new VisualStructure();
-			_visualStructure.setId("1");
+			_visualStructure = createVisualStructure();
 			_visualStructure.setNestedBlocks(_visualBlocks);
 			_visualStructure.setWidth(_pageWidth);
 			_visualStructure.setHeight(_pageHeight);
@@ -233,19 +382,25 @@ public class VisualStructureConstructor {
 			findListVisualStructures(_visualStructure, listStructures);
 			for (VisualStructure childVisualStructure : listStructures)
 			{
-				VipsSeparatorDetector detector = null;
+				_deadline.checkpoint();
 
-				if (_graphicsOutput)
-					detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-				else
-					detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
+				long fingerprint = childVisualStructure.getNestedBlocksFingerprint();
+
+				// blocks didn't change since detection, that found nothing
+				if (childVisualStructure.hasNoVerticalSeparators(fingerprint))
+					continue;
+
+				VipsSeparatorDetector detector = getSeparatorDetector();
 
 				detector.setCleanUpSeparators(4);
 
 				detector.setVipsBlock(_vipsBlocks);
 				detector.setVisualBlocks(childVisualStructure.getNestedBlocks());
 				detector.detectVerticalSeparators();
-				this._verticalSeparators = detector.getVerticalSeparators();
+				copySeparators(detector.getVerticalSeparators(), _verticalSeparators);
+
+				if (_verticalSeparators.isEmpty())
+					childVisualStructure.setNoVerticalSeparators(fingerprint);
 
 				for (Separator separator : _verticalSeparators)
 				{
@@ -258,6 +413,39 @@ public class VisualStructureConstructor {
 		}
 	}
 
+	/**
+	 * Creates new visual structure with unique node id
+	 * @return New visual structure
+	 */
+	private VisualStructure createVisualStructure()
+	{
+		return new VisualStructure(_nextNodeId++);
+	}
+
+	/**
+	 * Returns separators detector from current thread's pool
+	 * @return Reset separators detector
+	 */
+	private VipsSeparatorDetector getSeparatorDetector()
+	{
+		VipsSeparatorDetector detector = VipsSeparatorDetectorPool.getDetector(_graphicsOutput, _pageWidth, _pageHeight);
+
+		detector.setDeadline(_deadline);
+
+		return detector;
+	}
+
+	/**
+	 * Copies separators from pooled detector to given list
+	 * @param source Detected separators
+	 * @param target Target list
+	 */
+	private void copySeparators(List<Separator> source, List<Separator> target)
+	{
+		target.clear();
+		target.addAll(source);
+	}
+
 	/**
 	 * Performs actual constructing of visual structure with horizontal separators
 	 * @param actualStructure Actual visual structure
@@ -277,16 +465,18 @@ public class VisualStructureConstructor {
 		//construct children visual structures
 		for (Separator separator : _horizontalSeparators)
 		{
+			_deadline.checkpoint();
+
 			if (actualStructure.getChildrenVisualStructures().size() == 0)
 			{
-				topVisualStructure = new VisualStructure();
+				topVisualStructure = createVisualStructure();
 				topVisualStructure.setX(actualStructure.getX());
 				topVisualStructure.setY(actualStructure.getY());
 				topVisualStructure.setHeight((separator.startPoint-1)-actualStructure.getY());
 				topVisualStructure.setWidth(actualStructure.getWidth());
 				actualStructure.addChild(topVisualStructure);
 
-				bottomVisualStructure = new VisualStructure();
+				bottomVisualStructure = createVisualStructure();
 				bottomVisualStructure.setX(actualStructure.getX());
 				bottomVisualStructure.setY(separator.endPoint+1);
 				bottomVisualStructure.setHeight((actualStructure.getHeight()+actualStructure.getY())-separator.endPoint-1);
@@ -303,7 +493,7 @@ public class VisualStructureConstructor {
 					if (separator.startPoint >= childVisualStructure.getY() &&
 							separator.endPoint <= (childVisualStructure.getY() + childVisualStructure.getHeight()))
 					{
-						topVisualStructure = new VisualStructure();
+						topVisualStructure = createVisualStructure();
 						topVisualStructure.setX(childVisualStructure.getX());
 						topVisualStructure.setY(childVisualStructure.getY());
 						topVisualStructure.setHeight((separator.startPoint-1) - childVisualStructure.getY());
@@ -311,7 +501,7 @@ public class VisualStructureConstructor {
 						int index = actualStructure.getChildrenVisualStructures().indexOf(childVisualStructure);
 						actualStructure.addChildAt(topVisualStructure, index);
 
-						bottomVisualStructure = new VisualStructure();
+						bottomVisualStructure = createVisualStructure();
 						bottomVisualStructure.setX(childVisualStructure.getX());
 						bottomVisualStructure.setY(separator.endPoint+1);
 						int height = (childVisualStructure.getHeight()+childVisualStructure.getY())-separator.endPoint-1;
@@ -326,7 +516,7 @@ public class VisualStructureConstructor {
 				if (oldStructure != null)
 				{
 					nestedBlocks = oldStructure.getNestedBlocks();
-					actualStructure.getChildrenVisualStructures().remove(oldStructure);
+					actualStructure.removeChild(oldStructure);
 				}
 			}
 
@@ -345,14 +535,6 @@ public class VisualStructureConstructor {
 			bottomVisualStructure = null;
 		}
 
-		// set id for visual structures
-		int iterator = 1;
-		for (VisualStructure visualStructure : actualStructure.getChildrenVisualStructures())
-		{
-			visualStructure.setId(actualStructure.getId() + "-" + iterator);
-			iterator++;
-		}
-
 		List<Separator> allSeparatorsInBlock = new ArrayList<Separator>();
 		allSeparatorsInBlock.addAll(_horizontalSeparators);
 
@@ -363,6 +545,7 @@ public class VisualStructureConstructor {
 		}
 
 		//save all horizontal separators in my region
+		_separatorRegistry.internAll(_horizontalSeparators);
 		actualStructure.addHorizontalSeparators(_horizontalSeparators);
 	}
 
@@ -385,16 +568,18 @@ public class VisualStructureConstructor {
 		//construct children visual structures
 		for (Separator separator : _verticalSeparators)
 		{
+			_deadline.checkpoint();
+
 			if (actualStructure.getChildrenVisualStructures().size() == 0)
 			{
-				leftVisualStructure = new VisualStructure();
+				leftVisualStructure = createVisualStructure();
 				leftVisualStructure.setX(actualStructure.getX());
 				leftVisualStructure.setY(actualStructure.getY());
 				leftVisualStructure.setHeight(actualStructure.getHeight());
 				leftVisualStructure.setWidth((separator.startPoint-1)-actualStructure.getX());
 				actualStructure.addChild(leftVisualStructure);
 
-				rightVisualStructure = new VisualStructure();
+				rightVisualStructure = createVisualStructure();
 				rightVisualStructure.setX(separator.endPoint+1);
 				rightVisualStructure.setY(actualStructure.getY());
 				rightVisualStructure.setHeight(actualStructure.getHeight());
@@ -411,7 +596,7 @@ public class VisualStructureConstructor {
 					if (separator.startPoint >= childVisualStructure.getX() &&
 							separator.endPoint <= (childVisualStructure.getX() + childVisualStructure.getWidth()))
 					{
-						leftVisualStructure = new VisualStructure();
+						leftVisualStructure = createVisualStructure();
 						leftVisualStructure.setX(childVisualStructure.getX());
 						leftVisualStructure.setY(childVisualStructure.getY());
 						leftVisualStructure.setHeight(childVisualStructure.getHeight());
@@ -419,7 +604,7 @@ public class VisualStructureConstructor {
 						int index = actualStructure.getChildrenVisualStructures().indexOf(childVisualStructure);
 						actualStructure.addChildAt(leftVisualStructure, index);
 
-						rightVisualStructure = new VisualStructure();
+						rightVisualStructure = createVisualStructure();
 						rightVisualStructure.setX(separator.endPoint+1);
 						rightVisualStructure.setY(childVisualStructure.getY());
 						rightVisualStructure.setHeight(childVisualStructure.getHeight());
@@ -434,7 +619,7 @@ public class VisualStructureConstructor {
 				if (oldStructure != null)
 				{
 					nestedBlocks = oldStructure.getNestedBlocks();
-					actualStructure.getChildrenVisualStructures().remove(oldStructure);
+					actualStructure.removeChild(oldStructure);
 				}
 			}
 
@@ -453,14 +638,6 @@ public class VisualStructureConstructor {
 			rightVisualStructure = null;
 		}
 
-		// set id for visual structures
-		int iterator = 1;
-		for (VisualStructure visualStructure : actualStructure.getChildrenVisualStructures())
-		{
-			visualStructure.setId(actualStructure.getId() + "-" + iterator);
-			iterator++;
-		}
-
 		List<Separator> allSeparatorsInBlock = new ArrayList<Separator>();
 		allSeparatorsInBlock.addAll(_verticalSeparators);
 
@@ -471,26 +648,26 @@ public class VisualStructureConstructor {
 		}
 
 		//save all horizontal separators in my region
+		_separatorRegistry.internAll(_verticalSeparators);
 		actualStructure.addVerticalSeparators(_verticalSeparators);
 	}
 
 	/**
 	 * Exports all separators to output images
+	 * @param separatorsCollector Separators collected from visual structure
 	 */
-	private void exportSeparators()
+	private void exportSeparators(SeparatorsCollector separatorsCollector)
 	{
-		VipsSeparatorGraphicsDetector detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-		List<Separator> allSeparators = new ArrayList<Separator>();
+		VipsSeparatorGraphicsDetector detector = VipsSeparatorDetectorPool.getGraphicsDetector(_pageWidth, _pageHeight);
+		List<Separator> allSeparators = new ArrayList<Separator>(separatorsCollector.horizontalSeparators);
 
-		getAllHorizontalSeparators(_visualStructure, allSeparators);
 		Collections.sort(allSeparators);
 
 		detector.setHorizontalSeparators(allSeparators);
 		detector.exportHorizontalSeparatorsToImage(_iteration);
 
-		allSeparators.clear();
+		allSeparators = new ArrayList<Separator>(separatorsCollector.verticalSeparators);
 
-		getAllVerticalSeparators(_visualStructure, allSeparators);
 		Collections.sort(allSeparators);
 
 		detector.setVerticalSeparators(allSeparators);
@@ -509,6 +686,7 @@ public class VisualStructureConstructor {
 	{
 		this._pageHeight = height;
 		this._pageWidth = width;
+		_detectionCache.clear();
 	}
 
 	/**
@@ -534,12 +712,18 @@ public class VisualStructureConstructor {
 	 */
 	private void findVisualBlocks(VipsBlock vipsBlock, List<VipsBlock> results)
 	{
-		if (vipsBlock.isVisualBlock())
-			results.add(vipsBlock);
+		Deque<VipsBlock> stack = new ArrayDeque<VipsBlock>();
+		stack.push(vipsBlock);
 
-		for (VipsBlock child : vipsBlock.getChildren())
+		while (!stack.isEmpty())
 		{
-			findVisualBlocks(child, results);
+			VipsBlock actualBlock = stack.pop();
+
+			if (actualBlock.isVisualBlock())
+				results.add(actualBlock);
+
+			for (int i = actualBlock.getChildren().size() - 1; i >= 0; i--)
+				stack.push(actualBlock.getChildren().get(i));
 		}
 	}
 
@@ -580,7 +764,7 @@ public class VisualStructureConstructor {
 	 */
 	public void setHorizontalSeparator(List<Separator> horizontalSeparators)
 	{
-		this._horizontalSeparators = horizontalSeparators;
+		this._horizontalSeparators = new ArrayList<Separator>(horizontalSeparators);
 	}
 
 	/**
@@ -598,7 +782,7 @@ public class VisualStructureConstructor {
 	 */
 	public void setVerticalSeparator(List<Separator> verticalSeparators)
 	{
-		this._verticalSeparators = verticalSeparators;
+		this._verticalSeparators = new ArrayList<Separator>(verticalSeparators);
 	}
 
 	/**
@@ -608,8 +792,8 @@ public class VisualStructureConstructor {
 	 */
 	public void setSeparators(List<Separator> horizontalSeparators, List<Separator> verticalSeparators)
 	{
-		this._verticalSeparators = verticalSeparators;
-		this._horizontalSeparators = horizontalSeparators;
+		this._verticalSeparators = new ArrayList<Separator>(verticalSeparators);
+		this._horizontalSeparators = new ArrayList<Separator>(horizontalSeparators);
 	}
 
 	/**
@@ -617,74 +801,93 @@ public class VisualStructureConstructor {
 	 * @param visualStructure Actual structure
 	 * @param results Results
 	 */
-	private void findListVisualStructures(VisualStructure visualStructure, List<VisualStructure> results)
+	private void findListVisualStructures(VisualStructure visualStructure, final List<VisualStructure> results)
 	{
-		if (visualStructure.getChildrenVisualStructures().size() == 0)
-			results.add(visualStructure);
-
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-			findListVisualStructures(child, results);
+		VisualStructureWalker.walk(visualStructure, new VisualStructureVisitor() {
+			@Override
+			public void enter(VisualStructure structure)
+			{
+				if (structure.getChildrenVisualStructures().size() == 0)
+					results.add(structure);
+			}
+		});
 	}
 
 	/**
-	 * Replaces given old blocks with given new one
-	 * @param oldBlocks	List of old blocks
-	 * @param newBlocks List of new blocks
-	 * @param actualStructure Actual Structure
-	 * @param pathStructures Path from structure to root of the structure
+	 * Replaces old blocks of structures with their new blocks in all
+	 * predecessors of structures. Result is the same as if blocks were
+	 * replaced structure by structure (old blocks removed and new blocks
+	 * appended), but every predecessor is rebuilt only once.
+	 * @param structures Structures with new blocks
+	 * @param oldNestedBlocks Old blocks of structures
 	 */
-	private void replaceBlocksInPredecessors(List<VipsBlock> oldBlocks, List<VipsBlock> newBlocks, VisualStructure actualStructure, List<String> pathStructures)
+	private void replaceBlocksInPredecessors(List<VisualStructure> structures, List<List<VipsBlock>> oldNestedBlocks)
 	{
-		for (VisualStructure child : actualStructure.getChildrenVisualStructures())
-		{
-			replaceBlocksInPredecessors(oldBlocks, newBlocks, child, pathStructures);
-		}
+		// indexes of structures, that are under predecessor (in order)
+		Map<VisualStructure, List<Integer>> replacements = new IdentityHashMap<VisualStructure, List<Integer>>();
 
-		for (String structureId : pathStructures)
+		for (int i = 0; i < structures.size(); i++)
 		{
-			if (actualStructure.getId().equals(structureId))
+			for (VisualStructure predecessor = structures.get(i).getParent(); predecessor != null; predecessor = predecessor.getParent())
 			{
-				List<VipsBlock> tempBlocks = new ArrayList<VipsBlock>();
-				tempBlocks.addAll(actualStructure.getNestedBlocks());
+				List<Integer> indexes = replacements.get(predecessor);
 
-				//remove old blocks
-				for (VipsBlock block : tempBlocks)
+				if (indexes == null)
 				{
-					for (VipsBlock oldBlock : oldBlocks)
-					{
-						if (block.equals(oldBlock))
-						{
-							actualStructure.getNestedBlocks().remove(block);
-						}
-					}
+					indexes = new ArrayList<Integer>();
+					replacements.put(predecessor, indexes);
 				}
-				//add new blocks
-				actualStructure.addNestedBlocks(newBlocks);
+
+				indexes.add(i);
 			}
 		}
+
+		for (Map.Entry<VisualStructure, List<Integer>> entry : replacements.entrySet())
+			replaceBlocksInStructure(entry.getKey(), entry.getValue(), structures, oldNestedBlocks);
 	}
 
 	/**
-	 * Generates element's id's for elements that are on path
-	 * @param path (Start visual strucure id)
-	 * @return List of id's
+	 * Replaces old blocks of given structures with their new blocks in
+	 * predecessor
+	 * @param predecessor Predecessor of structures
+	 * @param indexes Indexes of structures
+	 * @param structures Structures with new blocks
+	 * @param oldNestedBlocks Old blocks of structures
 	 */
-	private List<String> generatePathStructures(String path)
+	private void replaceBlocksInStructure(VisualStructure predecessor, List<Integer> indexes,
+			List<VisualStructure> structures, List<List<VipsBlock>> oldNestedBlocks)
 	{
-		List<String> pathStructures = new ArrayList<String>();
+		// the last replacement, that removes block
+		Map<VipsBlock, Integer> lastRemoval = new IdentityHashMap<VipsBlock, Integer>();
 
-		String[] aaa = path.split("-");
+		for (int i = 0; i < indexes.size(); i++)
+		{
+			for (VipsBlock block : oldNestedBlocks.get(indexes.get(i)))
+				lastRemoval.put(block, i);
+		}
 
-		String tmp = "";
+		List<VipsBlock> result = new ArrayList<VipsBlock>();
 
-		for (int i = 0; i < aaa.length - 1; i++)
+		for (VipsBlock block : predecessor.getNestedBlocks())
 		{
-			tmp += aaa[i];
-			pathStructures.add(tmp);
-			tmp += "-";
+			if (!lastRemoval.containsKey(block))
+				result.add(block);
 		}
 
-		return pathStructures;
+		// new blocks survive, if they are not removed by later replacement
+		for (int i = 0; i < indexes.size(); i++)
+		{
+			for (VipsBlock block : structures.get(indexes.get(i)).getNestedBlocks())
+			{
+				Integer removal = lastRemoval.get(block);
+
+				if (removal == null || removal <= i)
+					result.add(block);
+			}
+		}
+
+		predecessor.clearNestedBlocks();
+		predecessor.addNestedBlocks(result);
 	}
 
 	/**
@@ -694,118 +897,71 @@ public class VisualStructureConstructor {
 	public void updateVipsBlocks(VipsBlock vipsBlocks)
 	{
 		setVipsBlocks(vipsBlocks);
+		pruneDetectionCache();
 
 		List<VisualStructure> listsVisualStructures = new ArrayList<VisualStructure>();
-		List<VipsBlock> oldNestedBlocks = new ArrayList<VipsBlock>();
 		findListVisualStructures(_visualStructure, listsVisualStructures);
 
-		for (VisualStructure visualStructure : listsVisualStructures)
+		VisualStructureGrid grid = new VisualStructureGrid(listsVisualStructures, _pageWidth, _pageHeight);
+		List<List<VipsBlock>> newNestedBlocks = new ArrayList<List<VipsBlock>>();
+		List<List<VipsBlock>> oldNestedBlocks = new ArrayList<List<VipsBlock>>();
+
+		for (int i = 0; i < listsVisualStructures.size(); i++)
+			newNestedBlocks.add(new ArrayList<VipsBlock>());
+
+		assignVisualBlocks(grid, _visualBlocks, newNestedBlocks, 0);
+
+		for (int i = 0; i < listsVisualStructures.size(); i++)
 		{
-			oldNestedBlocks.addAll(visualStructure.getNestedBlocks());
+			VisualStructure visualStructure = listsVisualStructures.get(i);
+			List<VipsBlock> oldBlocks = new ArrayList<VipsBlock>(visualStructure.getNestedBlocks());
+
 			visualStructure.clearNestedBlocks();
-			for (VipsBlock visualBlock : _visualBlocks)
-			{
-				if (visualBlock.getBox().getAbsoluteContentX() >= visualStructure.getX() &&
-						visualBlock.getBox().getAbsoluteContentX() <= (visualStructure.getX() + visualStructure.getWidth()))
-				{
-					if (visualBlock.getBox().getAbsoluteContentY() >= visualStructure.getY() &&
-							visualBlock.getBox().getAbsoluteContentY() <= (visualStructure.getY() + visualStructure.getHeight()))
-					{
-						if (visualBlock.getBox().getContentHeight() != 0 && visualBlock.getBox().getContentWidth() != 0)
-							visualStructure.addNestedBlock(visualBlock);
-					}
-				}
-			}
+			visualStructure.addNestedBlocks(newNestedBlocks.get(i));
+
 			if (visualStructure.getNestedBlocks().size() == 0)
 			{
-				visualStructure.addNestedBlocks(oldNestedBlocks);
-				_visualBlocks.addAll(oldNestedBlocks);
+				visualStructure.addNestedBlocks(oldBlocks);
+				_visualBlocks.addAll(oldBlocks);
+				// following structures will also get these blocks
+				assignVisualBlocks(grid, oldBlocks, newNestedBlocks, i + 1);
 			}
 
-			String path = visualStructure.getId();
-
-			List<String> pathStructures = generatePathStructures(path);
-
-			replaceBlocksInPredecessors(oldNestedBlocks, visualStructure.getNestedBlocks(), _visualStructure, pathStructures);
-
-			oldNestedBlocks.clear();
+			oldNestedBlocks.add(oldBlocks);
 		}
-	}
-
-	/**
-	 * Sets order to visual structure
-	 * @param visualStructure
-	 */
-	private void setOrder(VisualStructure visualStructure)
-	{
-		visualStructure.setOrder(_srcOrder);
-		_srcOrder++;
-
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-			setOrder(child);
-	}
 
-	/**
-	 * Finds all horizontal and vertical separators in given structure
-	 * @param visualStructure Given structure
-	 * @param result Results
-	 */
-	private void getAllSeparators(VisualStructure visualStructure, List<Separator> result)
-	{
-		findAllHorizontalSeparators(visualStructure, result);
-		findAllVerticalSeparators(visualStructure, result);
-		removeDuplicates(result);
+		replaceBlocksInPredecessors(listsVisualStructures, oldNestedBlocks);
 	}
 
 	/**
-	 * Finds all horizontal separators in given structure
-	 * @param visualStructure Given structure
-	 * @param result Results
+	 * Assigns visual blocks to structures, that contain their upper left corner
+	 * @param grid Spatial index of structures
+	 * @param visualBlocks Visual blocks
+	 * @param result Blocks of every structure
+	 * @param firstStructure Index of first structure, that gets blocks
 	 */
-	private void getAllHorizontalSeparators(VisualStructure visualStructure, List<Separator> result)
+	private void assignVisualBlocks(VisualStructureGrid grid, List<VipsBlock> visualBlocks,
+			List<List<VipsBlock>> result, int firstStructure)
 	{
-		findAllHorizontalSeparators(visualStructure, result);
-		removeDuplicates(result);
-	}
+		List<Integer> structures = new ArrayList<Integer>();
 
-	/**
-	 * Finds all vertical separators in given structure
-	 * @param visualStructure Given structure
-	 * @param result Results
-	 */
-	private void getAllVerticalSeparators(VisualStructure visualStructure, List<Separator> result)
-	{
-		findAllVerticalSeparators(visualStructure, result);
-		removeDuplicates(result);
-	}
+		for (VipsBlock visualBlock : visualBlocks)
+		{
+			_deadline.checkpoint();
 
-	/**
-	 * Finds all horizontal separators in given structure
-	 * @param visualStructure Given structure
-	 * @param result Results
-	 */
-	private void findAllHorizontalSeparators(VisualStructure visualStructure, List<Separator> result)
-	{
-		result.addAll(visualStructure.getHorizontalSeparators());
+			Box box = visualBlock.getBox();
 
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-		{
-			findAllHorizontalSeparators(child, result);
-		}
-	}
+			if (box.getContentHeight() == 0 || box.getContentWidth() == 0)
+				continue;
 
-	/**
-	 * Finds all vertical separators in given structure
-	 * @param visualStructure Given structure
-	 * @param result Results
-	 */
-	private void findAllVerticalSeparators(VisualStructure visualStructure, List<Separator> result)
-	{
-		result.addAll(visualStructure.getVerticalSeparators());
+			structures.clear();
+			grid.findContaining(box.getAbsoluteContentX(), box.getAbsoluteContentY(), structures);
 
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-		{
-			findAllVerticalSeparators(child, result);
+			for (Integer index : structures)
+			{
+				if (index >= firstStructure)
+					result.get(index).add(visualBlock);
+			}
 		}
 	}
 
@@ -815,132 +971,87 @@ public class VisualStructureConstructor {
 	 */
 	private void updateSeparatorsInStructure(VisualStructure visualStructure)
 	{
+		List<Separator> separators = visualStructure.getHorizontalSeparators();
+
+		if (separators.isEmpty())
+			return;
+
 		List<VipsBlock> adjacentBlocks = new ArrayList<VipsBlock>();
+		VerticalBlockIndex blockIndex = new VerticalBlockIndex(visualStructure.getNestedBlocks());
+		int cleanUpSeparators = (_iteration > 3) ? 6 : 3;
 
 		List<Separator> allSeparators = new ArrayList<Separator>();
-		allSeparators.addAll(visualStructure.getHorizontalSeparators());
+		allSeparators.addAll(separators);
 
 		// separator between blocks
 		for (Separator separator : allSeparators)
 		{
-			int aboveBottom = 0;
-			int belowTop = _pageHeight;
-			VipsBlock above = null;
-			VipsBlock below = null;
-			adjacentBlocks.clear();
-
-			for (VipsBlock block : visualStructure.getNestedBlocks())
-			{
-				int top = block.getBox().getAbsoluteContentY();
-				int bottom = block.getBox().getAbsoluteContentY() + block.getBox().getContentHeight();
+			int above = blockIndex.findAbove(separator.startPoint);
 
-				if (bottom <= separator.startPoint && bottom > aboveBottom)
-				{
-					aboveBottom = bottom;
-					above = block;
-				}
+			if (above == -1)
+				continue;
 
-				if (top >= separator.endPoint && top < belowTop)
-				{
-					belowTop = top;
-					below = block;
-					adjacentBlocks.add(block);
-				}
-			}
+			adjacentBlocks.clear();
+			blockIndex.findBelow(separator.endPoint, _pageHeight, adjacentBlocks);
 
-			if (above == null || below == null)
+			if (adjacentBlocks.isEmpty())
 				continue;
 
-			adjacentBlocks.add(above);
+			VipsBlock below = adjacentBlocks.get(adjacentBlocks.size() - 1);
+			int aboveBottom = blockIndex.getBottom(above);
+			int belowTop = below.getBox().getAbsoluteContentY();
+
+			adjacentBlocks.add(visualStructure.getNestedBlocks().get(above));
 			adjacentBlocks.add(below);
 
 			if (aboveBottom == separator.startPoint - 1 && belowTop == separator.endPoint + 1)
 				continue;
 
-			if (adjacentBlocks.size() < 2)
-				continue;
-
-			VipsSeparatorDetector detector = null;
-
-			if (_graphicsOutput)
-				detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-			else
-				detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
-
-			detector.setCleanUpSeparators(3);
-			if (_iteration > 3)
-				detector.setCleanUpSeparators(6);
+			int index = separators.indexOf(separator);
 
-			//detector.setVipsBlock(_vipsBlocks);
-			detector.setVisualBlocks(adjacentBlocks);
-			detector.detectHorizontalSeparators();
+			if (index == -1)
+				continue;
 
-			List<Separator> tempSeparators = new ArrayList<Separator>();
-			tempSeparators.addAll(visualStructure.getHorizontalSeparators());
+			List<Separator> detected = detectHorizontalSeparators(adjacentBlocks, cleanUpSeparators);
 
-			if (detector.getHorizontalSeparators().size() == 0)
+			if (detected.size() == 0)
 				continue;
 
-			Separator newSeparator = detector.getHorizontalSeparators().get(0);
+			Separator newSeparator = detected.get(0);
 			newSeparator.setLeftUp(visualStructure.getX(), newSeparator.startPoint);
 			newSeparator.setRightDown(visualStructure.getX()+visualStructure.getWidth(), newSeparator.endPoint);
 
-			//remove all separators, that are included in block
-			for (Separator other : tempSeparators)
-			{
-				if (other.equals(separator))
-				{
-					visualStructure.getHorizontalSeparators().add(visualStructure.getHorizontalSeparators().indexOf(other)+1, newSeparator);
-					visualStructure.getHorizontalSeparators().remove(other);
-					break;
-				}
-			}
+			separators.set(index, _separatorRegistry.intern(newSeparator));
 		}
 
 		// new blocks in separator
 		for (Separator separator : allSeparators)
 		{
-			int blockTop = _pageHeight;
-			int blockDown = 0;
 			adjacentBlocks.clear();
-
-			for (VipsBlock block : visualStructure.getNestedBlocks())
-			{
-				int top = block.getBox().getAbsoluteContentY();
-				int bottom = block.getBox().getAbsoluteContentY() + block.getBox().getContentHeight();
-
-				// block is inside the separator
-				if (top > separator.startPoint && bottom < separator.endPoint)
-				{
-					adjacentBlocks.add(block);
-
-					if (top < blockTop)
-						blockTop = top;
-
-					if (bottom > blockDown)
-						blockDown = bottom;
-				}
-			}
+			blockIndex.findInside(separator.startPoint, separator.endPoint, adjacentBlocks);
 
 			if (adjacentBlocks.size() == 0)
 				continue;
 
-			VipsSeparatorDetector detector = null;
+			int index = separators.indexOf(separator);
 
-			if (_graphicsOutput)
-				detector = new VipsSeparatorGraphicsDetector(_pageWidth, _pageHeight);
-			else
-				detector = new VipsSeparatorNonGraphicsDetector(_pageWidth, _pageHeight);
+			if (index == -1)
+				continue;
 
-			detector.setCleanUpSeparators(3);
-			if (_iteration > 3)
-				detector.setCleanUpSeparators(6);
+			int blockTop = _pageHeight;
+			int blockDown = 0;
 
-			detector.setVisualBlocks(adjacentBlocks);
-			detector.detectHorizontalSeparators();
+			for (VipsBlock block : adjacentBlocks)
+			{
+				int top = block.getBox().getAbsoluteContentY();
+				int bottom = top + block.getBox().getContentHeight();
+
+				if (top < blockTop)
+					blockTop = top;
 
-			List<Separator> tempSeparators = new ArrayList<Separator>();
-			tempSeparators.addAll(visualStructure.getHorizontalSeparators());
+				if (bottom > blockDown)
+					blockDown = bottom;
+			}
 
 			List<Separator> newSeparators = new ArrayList<Separator>();
 
@@ -954,47 +1065,137 @@ public class VisualStructureConstructor {
 			newSeparatorBottom.setLeftUp(visualStructure.getX(), newSeparatorBottom.startPoint);
 			newSeparatorBottom.setRightDown(visualStructure.getX()+visualStructure.getWidth(), newSeparatorBottom.endPoint);
 
-			if (detector.getHorizontalSeparators().size() != 0)
-			{
-				newSeparators.addAll(detector.getHorizontalSeparators());
-			}
-
+			newSeparators.addAll(detectHorizontalSeparators(adjacentBlocks, cleanUpSeparators));
 			newSeparators.add(newSeparatorBottom);
+			_separatorRegistry.internAll(newSeparators);
 
-			//remove all separators, that are included in block
-			for (Separator other : tempSeparators)
-			{
-				if (other.equals(separator))
-				{
-					visualStructure.getHorizontalSeparators().addAll(visualStructure.getHorizontalSeparators().indexOf(other)+1, newSeparators);
-					visualStructure.getHorizontalSeparators().remove(other);
-					break;
-				}
-			}
+			// replace separator with the new ones
+			separators.remove(index);
+			separators.addAll(index, newSeparators);
 		}
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
+	}
+
+	/**
+	 * Detects horizontal separators between given blocks. Results are
+	 * cached, so detection runs again only if blocks around separator
+	 * changed.
+	 * @param blocks Blocks
+	 * @param cleanUpSeparators Separators clean up treshold
+	 * @return New list of detected separators (ordered by weight)
+	 */
+	private List<Separator> detectHorizontalSeparators(List<VipsBlock> blocks, int cleanUpSeparators)
+	{
+		DetectionKey key = new DetectionKey(blocks, cleanUpSeparators);
+		SeparatorTable detected = _detectionCache.get(key);
+
+		if (detected == null)
 		{
-			updateSeparatorsInStructure(child);
+			VipsSeparatorDetector detector = getSeparatorDetector();
+
+			detector.setCleanUpSeparators(cleanUpSeparators);
+			detector.setVisualBlocks(blocks);
+			detector.detectHorizontalSeparators();
+
+			detected = new SeparatorTable(detector.getHorizontalSeparators().size());
+			detected.setSeparators(detector.getHorizontalSeparators());
+			_detectionCache.put(key, detected);
 		}
+
+		List<Separator> result = new ArrayList<Separator>(detected.size());
+		detected.getSeparators(result);
+
+		return result;
 	}
 
 	/**
-	 * Updates separators on whole page
+	 * Removes cached detections between blocks, that aren't visual blocks
+	 * anymore (they can't be adjacent blocks again)
 	 */
-	private void updateSeparators()
+	private void pruneDetectionCache()
 	{
-		updateSeparatorsInStructure(_visualStructure);
+		Set<VipsBlock> liveBlocks = new HashSet<VipsBlock>(_visualBlocks);
+		Iterator<DetectionKey> iterator = _detectionCache.keySet().iterator();
+
+		while (iterator.hasNext())
+		{
+			if (!liveBlocks.containsAll(iterator.next().blocks))
+				iterator.remove();
+		}
 	}
 
 	/**
-	 * Removes duplicates from list of separators
-	 * @param separators
+	 * Key of cached separators detection
 	 */
-	private void removeDuplicates(List<Separator> separators)
+	private static class DetectionKey
 	{
-		HashSet<Separator> hashSet = new HashSet<Separator>(separators);
-		separators.clear();
-		separators.addAll(hashSet);
+		private final List<VipsBlock> blocks;
+		private final int cleanUpSeparators;
+
+		private DetectionKey(List<VipsBlock> blocks, int cleanUpSeparators)
+		{
+			this.blocks = new ArrayList<VipsBlock>(blocks);
+			this.cleanUpSeparators = cleanUpSeparators;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof DetectionKey))
+				return false;
+
+			DetectionKey other = (DetectionKey) obj;
+
+			return cleanUpSeparators == other.cleanUpSeparators && blocks.equals(other.blocks);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * blocks.hashCode() + cleanUpSeparators;
+		}
+	}
+
+	/**
+	 * Updates separators of given structure, if they could be changed since
+	 * their last update
+	 * @param visualStructure Visual structure
+	 */
+	private void updateSeparators(VisualStructure visualStructure)
+	{
+		long fingerprint = getSeparatorsUpdateFingerprint(visualStructure);
+
+		if (visualStructure.areSeparatorsUpToDate(fingerprint))
+			return;
+
+		updateSeparatorsInStructure(visualStructure);
+
+		// nothing was changed, so the same update would change nothing again
+		if (getSeparatorsUpdateFingerprint(visualStructure) == fingerprint)
+			visualStructure.setSeparatorsUpToDate(fingerprint);
+	}
+
+	/**
+	 * Computes fingerprint of everything, that separators update depends on
+	 * (nested blocks, separators and clean up treshold of detector)
+	 * @param visualStructure Visual structure
+	 * @return Fingerprint
+	 */
+	private long getSeparatorsUpdateFingerprint(VisualStructure visualStructure)
+	{
+		return visualStructure.getHorizontalSeparatorsFingerprint() * 31 + ((_iteration > 3) ? 1 : 0);
+	}
+
+	/**
+	 * Keeps in registry only separators, that are used in visual structure
+	 * @param separatorsCollector Separators collected from visual structure
+	 */
+	private void pruneSeparatorRegistry(SeparatorsCollector separatorsCollector)
+	{
+		Set<Separator> liveSeparators = new HashSet<Separator>(separatorsCollector.horizontalSeparators);
+
+		liveSeparators.addAll(separatorsCollector.verticalSeparators);
+
+		_separatorRegistry.retainAll(liveSeparators);
 	}
 
 	/**
@@ -1015,21 +1216,27 @@ public class VisualStructureConstructor {
 	 */
 	public void normalizeSeparatorsSoftMax()
 	{
-		List<Separator> separators = new ArrayList<Separator>();
-		getAllSeparators(_visualStructure, separators);
-		Collections.sort(separators);
+		// registry contains just separators used in visual structure
+		Collection<Separator> separators = _separatorRegistry.getSeparators();
 
-		double stdev = getStdDeviation(separators);
-		double meanValue = 0;
 		double lambda = 3.0;
 		double alpha = 1.0;
 
+		// mean value and variance of weights in one pass (Welford's algorithm)
+		int count = 0;
+		double meanValue = 0.0;
+		double squaredDeviations = 0.0;
+
 		for (Separator separator : separators)
 		{
-			meanValue += separator.weight;
+			count++;
+
+			double delta = separator.weight - meanValue;
+			meanValue += delta / count;
+			squaredDeviations += delta * (separator.weight - meanValue);
 		}
 
-		meanValue /= separators.size();
+		double stdev = Math.sqrt(squaredDeviations / count);
 
 		for (Separator separator : separators)
 		{
@@ -1056,22 +1263,22 @@ public class VisualStructureConstructor {
 	 */
 	public void normalizeSeparatorsMinMax()
 	{
-		List<Separator> separators = new ArrayList<Separator>();
+		// registry contains just separators used in visual structure
+		Collection<Separator> separators = _separatorRegistry.getSeparators();
 
-		getAllSeparators(_visualStructure, separators);
+		// weight of separator around whole page
+		int minWeight = 40;
+		int maxWeight = 40;
 
-		Separator maxSep = new Separator(0, _pageHeight);
-		separators.add(maxSep);
-		maxSep.weight = 40;
-
-		Collections.sort(separators);
-
-		double minWeight = separators.get(0).weight;
-		double maxWeight = separators.get(separators.size()-1).weight;
+		for (Separator separator : separators)
+		{
+			minWeight = Math.min(minWeight, separator.weight);
+			maxWeight = Math.max(maxWeight, separator.weight);
+		}
 
 		for (Separator separator : separators)
 		{
-			double normalizedValue = (separator.weight - minWeight) / (maxWeight - minWeight) * (11 - 1) + 1;
+			double normalizedValue = (double) (separator.weight - minWeight) / (maxWeight - minWeight) * (11 - 1) + 1;
 			separator.normalizedWeight = getDoCValue((int) Math.ceil(normalizedValue));
 			/*		System.out.println(separator.startPoint + "\t" + separator.endPoint + "\t" +
 					(separator.endPoint - separator.startPoint + 1) +
@@ -1090,12 +1297,15 @@ public class VisualStructureConstructor {
 	 */
 	private void updateDoC(VisualStructure visualStructure)
 	{
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-		{
-			updateDoC(child);
-		}
-
-		visualStructure.updateToNormalizedDoC();
+		// DoC of structure depends on DoC of its children, so they have to
+		// be updated first
+		VisualStructureWalker.walk(visualStructure, new VisualStructureVisitor() {
+			@Override
+			public void leave(VisualStructure structure)
+			{
+				structure.updateToNormalizedDoC();
+			}
+		});
 	}
 
 	/**
@@ -1104,16 +1314,17 @@ public class VisualStructureConstructor {
 	 */
 	private void findMinimalDoC(VisualStructure visualStructure)
 	{
-		if (!visualStructure.getId().equals("1"))
-		{
-			if (visualStructure.getDoC() < _minDoC)
-				_minDoC = visualStructure.getDoC();
-		}
-
-		for (VisualStructure child : visualStructure.getChildrenVisualStructures())
-		{
-			findMinimalDoC(child);
-		}
+		VisualStructureWalker.walk(visualStructure, new VisualStructureVisitor() {
+			@Override
+			public void enter(VisualStructure structure)
+			{
+				if (structure.getParent() != null)
+				{
+					if (structure.getDoC() < _minDoC)
+						_minDoC = structure.getDoC();
+				}
+			}
+		});
 	}
 
 	/**
@@ -1143,44 +1354,4 @@ public class VisualStructureConstructor {
 		return true;
 	}
 
-	/**
-	 * Counts standard deviation from list of separators
-	 * @param separators List of separators
-	 * @return Standard deviation
-	 */
-	private double getStdDeviation(List<Separator> separators)
-	{
-		double meanValue = 0.0;
-		double stddev = 0.0;
-		List<Double> deviations = new ArrayList<Double>();
-		List<Double> squaredDeviations = new ArrayList<Double>();
-		double sum = 0.0;
-
-		for (Separator separator : separators)
-		{
-			meanValue += separator.weight;
-		}
-
-		meanValue /= separators.size();
-
-		for (Separator separator : separators)
-		{
-			deviations.add(separator.weight - meanValue);
-		}
-
-		for (Double deviation : deviations)
-		{
-			squaredDeviations.add(deviation * deviation);
-		}
-
-		for (Double squaredDeviation : squaredDeviations)
-		{
-			sum += squaredDeviation;
-		}
-
-		stddev = Math.sqrt(sum/squaredDeviations.size());
-
-		return stddev;
-	}
-
 }
@@ -0,0 +1,122 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VisualStructureGrid.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spatial index of visual structures' rectangles.
+ * <p>
+ * Page is divided to uniform grid of cells and every structure is
+ * registered in all cells, that its rectangle overlaps. Structures
+ * containing given point are then searched only in point's cell.
+ * Rectangles include their right and bottom edges.
+ * @author Tomas Popela
+ *
+ */
+public class VisualStructureGrid {
+
+	private List<VisualStructure> _structures = null;
+	private List<List<Integer>> _cells = null;
+	private int _columns = 0;
+	private int _rows = 0;
+	private int _cellWidth = 0;
+	private int _cellHeight = 0;
+
+	/**
+	 * Builds index of given structures
+	 * @param structures Structures
+	 * @param width Width of page
+	 * @param height Height of page
+	 */
+	public VisualStructureGrid(List<VisualStructure> structures, int width, int height)
+	{
+		_structures = structures;
+
+		// about one structure per cell, when structures cover the page
+		int size = (int) Math.ceil(Math.sqrt(Math.max(structures.size(), 1)));
+
+		_columns = size;
+		_rows = size;
+		_cellWidth = Math.max(1, (width + _columns - 1) / _columns);
+		_cellHeight = Math.max(1, (height + _rows - 1) / _rows);
+
+		_cells = new ArrayList<List<Integer>>(_columns * _rows);
+		for (int i = 0; i < _columns * _rows; i++)
+			_cells.add(null);
+
+		for (int i = 0; i < structures.size(); i++)
+		{
+			VisualStructure structure = structures.get(i);
+
+			// empty rectangle doesn't contain any point
+			if (structure.getWidth() < 0 || structure.getHeight() < 0)
+				continue;
+
+			int firstColumn = getColumn(structure.getX());
+			int lastColumn = getColumn(structure.getX() + structure.getWidth());
+			int firstRow = getRow(structure.getY());
+			int lastRow = getRow(structure.getY() + structure.getHeight());
+
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				for (int column = firstColumn; column <= lastColumn; column++)
+				{
+					int cell = row * _columns + column;
+
+					if (_cells.get(cell) == null)
+						_cells.set(cell, new ArrayList<Integer>());
+
+					_cells.get(cell).add(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets column of given coordinate. Coordinates outside of page belong
+	 * to border cells.
+	 */
+	private int getColumn(int x)
+	{
+		return Math.min(_columns - 1, Math.max(0, x / _cellWidth));
+	}
+
+	/**
+	 * Gets row of given coordinate. Coordinates outside of page belong
+	 * to border cells.
+	 */
+	private int getRow(int y)
+	{
+		return Math.min(_rows - 1, Math.max(0, y / _cellHeight));
+	}
+
+	/**
+	 * Finds structures, that contain given point
+	 * @param x X coordinate of point
+	 * @param y Y coordinate of point
+	 * @param result List, where indexes of found structures are added (in
+	 * ascending order)
+	 */
+	public void findContaining(int x, int y, List<Integer> result)
+	{
+		List<Integer> cell = _cells.get(getRow(y) * _columns + getColumn(x));
+
+		if (cell == null)
+			return;
+
+		for (Integer index : cell)
+		{
+			VisualStructure structure = _structures.get(index);
+
+			if (x >= structure.getX() && x <= (structure.getX() + structure.getWidth()) &&
+					y >= structure.getY() && y <= (structure.getY() + structure.getHeight()))
+				result.add(index);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VisualStructureVisitor.java
+ */
+
+package org.fit.vips;
+
+/**
+ * Visitor of visual structure tree used by {@link VisualStructureWalker}.
+ * <p>
+ * Structure is entered before its children (pre-order) and left after all
+ * its children were left (post-order). Visitor shouldn't change children
+ * of visited structures.
+ * @author Tomas Popela
+ *
+ */
+public abstract class VisualStructureVisitor {
+
+	/**
+	 * Called before children of structure are visited
+	 * @param structure Visited structure
+	 */
+	public void enter(VisualStructure structure)
+	{
+	}
+
+	/**
+	 * Called after all children of structure were visited
+	 * @param structure Visited structure
+	 */
+	public void leave(VisualStructure structure)
+	{
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Tomas Popela, 2012
+ * VIPS - Visual Internet Page Segmentation
+ * Module - VisualStructureWalker.java
+ */
+
+package org.fit.vips;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Iterative traversal of visual structure tree.
+ * <p>
+ * More visitors can be passed to one walk, so independent passes over
+ * the tree are done in single traversal. Visitors are called in given
+ * order for every structure.
+ * @author Tomas Popela
+ *
+ */
+public class VisualStructureWalker {
+
+	/**
+	 * Walks tree with given root and calls visitors for all its structures
+	 * @param root Root of the tree
+	 * @param visitors Visitors
+	 */
+	public static void walk(VisualStructure root, VisualStructureVisitor... visitors)
+	{
+		Deque<VisualStructure> stack = new ArrayDeque<VisualStructure>();
+		// index of next visited child of structure on given depth of stack
+		int[] nextChild = new int[16];
+
+		enter(root, visitors);
+		stack.push(root);
+
+		while (!stack.isEmpty())
+		{
+			VisualStructure actualStructure = stack.peek();
+			List<VisualStructure> children = actualStructure.getChildrenVisualStructures();
+			int top = stack.size() - 1;
+
+			if (nextChild[top] < children.size())
+			{
+				VisualStructure child = children.get(nextChild[top]);
+				nextChild[top]++;
+
+				if (top + 1 == nextChild.length)
+					nextChild = Arrays.copyOf(nextChild, nextChild.length * 2);
+
+				nextChild[top + 1] = 0;
+
+				enter(child, visitors);
+				stack.push(child);
+			}
+			else
+			{
+				stack.pop();
+
+				for (VisualStructureVisitor visitor : visitors)
+					visitor.leave(actualStructure);
+			}
+		}
+	}
+
+	private static void enter(VisualStructure structure, VisualStructureVisitor[] visitors)
+	{
+		for (VisualStructureVisitor visitor : visitors)
+			visitor.enter(structure);
+	}
+}